@@ -0,0 +1,305 @@
+package it.univr.reti;
+
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks of the simulator, of the assembly of plot data and of headless
+ * rendering, with no dependencies (so not on JMH, which needs a build):
+ *
+ * <pre>
+ * javac -d out src/it/univr/reti/*.java bench/it/univr/reti/*.java
+ * java -Djava.awt.headless=true -cp out it.univr.reti.TCPBenchmarks [regex] [-wi 3] [-i 5] [-t 500] [-o base.csv]
+ * </pre>
+ *
+ * Every benchmark matching the regex (on its name and parameters) runs warmup
+ * iterations, then measured ones, of about -t ms each, calling its operation
+ * in a loop. Scores are the average time per operation with its standard
+ * deviation across iterations, the bytes allocated per operation by the
+ * benchmark thread and the collections per iteration, as -prof gc of JMH
+ * would report them. With -o, results are also written as CSV, to be compared
+ * with those of a later run.
+ */
+public class TCPBenchmarks {
+
+    // PARAMETERS
+    private static final long[] SEGMENTS = {1_000, 100_000}; // data to send
+    private static final int[] OUTAGES = {0, 20}; // network downs
+    private static final int[] RCVWND_CHANGES = {0, 20}; // rcvwnds told after the first one
+    private static final int[] SERIES_LENGTHS = {1_000, 100_000, 1_000_000}; // points of rendered series
+    private static final int[] PARALLELISMS = {1, 4}; // bands drawn at the same time
+
+    // SCENARIO
+    private static final int MSS = 1000; // in bytes
+    private static final double RTT = 0.5; // in sec
+    private static final int RCVWND = 64; // in segments, halved by every other change
+    private static final double SEGMENTS_PER_SEC = RCVWND * 0.75 / RTT; // roughly, to spread events over the run
+    private static final double OUTAGE_DURATION = 1; // in sec
+
+    private static volatile Object sink; // results are stored here, so that their computation is not dropped
+
+    private int warmupIterations = 3;
+    private int iterations = 5;
+    private long iterationNanos = 500_000_000L;
+    private Pattern filter = Pattern.compile("");
+    private Path output;
+    private final List<String> rows = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        TCPBenchmarks benchmarks = new TCPBenchmarks();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-wi" ->
+                    benchmarks.warmupIterations = Integer.parseInt(args[++i]);
+                case "-i" ->
+                    benchmarks.iterations = Integer.parseInt(args[++i]);
+                case "-t" ->
+                    benchmarks.iterationNanos = Long.parseLong(args[++i]) * 1_000_000L;
+                case "-o" ->
+                    benchmarks.output = Path.of(args[++i]);
+                default ->
+                    benchmarks.filter = Pattern.compile(args[i]);
+            }
+        }
+        if (benchmarks.iterations < 2) {
+            throw new IllegalArgumentException("Invalid number of iterations provided (must be > 1)");
+        }
+
+        benchmarks.runAll();
+    }
+
+    private void runAll() throws Exception {
+        System.out.printf(Locale.ROOT, "%-24s %-44s %4s %14s %12s %6s %14s %8s%n", "Benchmark", "(params)", "Cnt",
+                "Score", "Error", "Units", "Alloc", "GCs/it");
+        rows.add("benchmark,params,iterations,nsPerOp,nsPerOpStdev,bytesPerOp,gcsPerIteration");
+
+        for (long segments : SEGMENTS) {
+            for (int outages : OUTAGES) {
+                for (int changes : RCVWND_CHANGES) {
+                    String params = "segments=" + segments + ",outages=" + outages + ",rcvwndChanges=" + changes;
+                    TCPScenario scenario = scenario(segments, outages, changes);
+
+                    bench("simulator.run", params, () -> scenario.simulator().run());
+                    bench("simulator.fastForward", params, () -> scenario.simulator().fastForward(true).run());
+                    bench("simulator.simulate", params, () -> { // what simulate() does, but the window
+                        TCPPlot plot = new TCPPlot(scenario.getRtt());
+                        scenario.simulator().run(SimulationListener.all(new DiscardingConsoleListener(), plot));
+                        return plot;
+                    });
+
+                    List<Consumer<SimulationListener>> events = record(scenario);
+                    bench("plot.assembly", params, () -> { // series filled from the rounds, as for showPlot()
+                        TCPPlot plot = new TCPPlot(scenario.getRtt());
+                        for (Consumer<SimulationListener> event : events) {
+                            event.accept(plot);
+                        }
+                        plot.appended(); // skipped rounds replayed
+                        return plot.maxX() + plot.maxY() + plot.gridDensity();
+                    });
+                    bench("plot.image", params, () -> { // series filled, then drawn
+                        TCPPlot plot = new TCPPlot(scenario.getRtt());
+                        for (Consumer<SimulationListener> event : events) {
+                            event.accept(plot);
+                        }
+                        return plot.getImage();
+                    });
+                }
+            }
+        }
+
+        for (int length : SERIES_LENGTHS) {
+            for (int parallelism : PARALLELISMS) {
+                String params = "seriesLength=" + length + ",parallelism=" + parallelism;
+                Plot plot = plot(length, parallelism);
+                bench("render.image", params, plot::getImage);
+            }
+            String params = "seriesLength=" + length;
+            Plot plot = plot(length, 1);
+            bench("render.png", params, () -> {
+                plot.save(OutputStream.nullOutputStream(), "png");
+                return plot;
+            });
+            bench("render.svg", params, () -> {
+                plot.save(OutputStream.nullOutputStream(), Plot.SVG);
+                return plot;
+            });
+        }
+
+        if (output != null) {
+            Files.write(output, rows);
+        }
+    }
+
+    private void bench(String name, String params, Callable<Object> operation) throws Exception {
+        if (!filter.matcher(name + " " + params).find()) {
+            return;
+        }
+
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(operation);
+        }
+
+        double[] nanosPerOp = new double[iterations];
+        double bytesPerOp = 0, collections = 0;
+        for (int i = 0; i < iterations; i++) {
+            double[] iteration = iteration(operation);
+            nanosPerOp[i] = iteration[0];
+            bytesPerOp += iteration[1] / iterations;
+            collections += iteration[2] / iterations;
+        }
+
+        double mean = 0, variance = 0;
+        for (double value : nanosPerOp) {
+            mean += value / iterations;
+        }
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean) / (iterations - 1);
+        }
+        double scale = mean >= 1e6 ? 1e6 : 1e3; // ms/op for the slow ones, us/op otherwise
+        String units = scale == 1e6 ? "ms/op" : "us/op";
+
+        System.out.printf(Locale.ROOT, "%-24s %-44s %4d %14.3f %12s %6s %14s %8.2f%n", name, params, iterations,
+                mean / scale, String.format(Locale.ROOT, "+- %.3f", Math.sqrt(variance) / scale), units,
+                bytes(bytesPerOp) + "/op", collections);
+        rows.add(String.format(Locale.ROOT, "%s,\"%s\",%d,%.1f,%.1f,%.0f,%.2f", name, params, iterations, mean,
+                Math.sqrt(variance), bytesPerOp, collections));
+    }
+
+    private double[] iteration(Callable<Object> operation) throws Exception { // {ns/op, bytes/op, collections}
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long collections = collections();
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime(), elapsed;
+        long operations = 0;
+
+        do {
+            sink = operation.call();
+            operations++;
+        } while ((elapsed = System.nanoTime() - start) < iterationNanos);
+
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+        return new double[]{(double) elapsed / operations, (double) bytes / operations, collections() - collections};
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static String bytes(double bytes) {
+        return bytes >= 1 << 20 ? String.format(Locale.ROOT, "%.1f MB", bytes / (1 << 20))
+                : bytes >= 1 << 10 ? String.format(Locale.ROOT, "%.1f KB", bytes / (1 << 10))
+                : String.format(Locale.ROOT, "%.0f B", bytes);
+    }
+
+    // rcvwnd changes and outages spread over the time the data takes to be sent
+    private static TCPScenario scenario(long segments, int outages, int changes) {
+        double duration = Math.max(segments / SEGMENTS_PER_SEC, // long enough for events not to overlap
+                Math.max(changes * 2 * RTT, outages * 4 * OUTAGE_DURATION));
+
+        double[][] rcvwnds = new double[changes + 1][];
+        rcvwnds[0] = new double[]{0, RCVWND * MSS};
+        for (int i = 1; i <= changes; i++) {
+            rcvwnds[i] = new double[]{round(duration * i / (changes + 1)), (i % 2 == 0 ? RCVWND : RCVWND / 2) * MSS};
+        }
+
+        double[][] networkDowns = new double[outages][];
+        for (int i = 0; i < outages; i++) {
+            double start = round(duration * (i + 0.5) / outages);
+            networkDowns[i] = new double[]{start, start + OUTAGE_DURATION};
+        }
+
+        return new TCPScenario(null, MSS, segments * MSS, TCPSimulator.INITIAL_RCVWND, networkDowns, rcvwnds, RTT,
+                TCPSimulator.DOUBLE_RTT);
+    }
+
+    private static double round(double time) { // to a multiple of rtt, as exercises have them
+        return Math.max(RTT, Math.round(time / RTT) * RTT);
+    }
+
+    private static Plot plot(int length, int parallelism) { // a noisy wave, as long traces look
+        double[] x = new double[length], y = new double[length];
+        for (int i = 0; i < length; i++) {
+            x[i] = i;
+            y[i] = 50 + 40 * Math.sin(i * 20.0 / length) + (i * 7919 % 13) - 6;
+        }
+
+        Plot plot = Plot.plot(Plot.plotOpts().title("Render").legend(Plot.LegendFormat.BOTTOM)
+                .width(TCPPlot.WIDTH).height(TCPPlot.HEIGHT).parallelism(parallelism));
+        plot.series("Line", Plot.data().xy(x, y), Plot.seriesOpts().color(java.awt.Color.BLUE));
+        plot.series("Markers", Plot.data().xy(x, y), Plot.seriesOpts().line(Plot.Line.NONE)
+                .marker(Plot.Marker.CIRCLE).markerColor(java.awt.Color.BLACK).color(java.awt.Color.BLACK));
+        return plot;
+    }
+
+    private static List<Consumer<SimulationListener>> record(TCPScenario scenario) { // events of a run, to replay
+        List<Consumer<SimulationListener>> events = new ArrayList<>();
+        scenario.simulator().fastForward(true).run(new SimulationListener() {
+            @Override
+            public void onNetworkDown(int index, double start, double finish) {
+                events.add(l -> l.onNetworkDown(index, start, finish));
+            }
+
+            @Override
+            public void onRound(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd) {
+                events.add(l -> l.onRound(time, remaining, sent, cwnd, ssthresh, rcvwnd));
+            }
+
+            @Override
+            public void onRcvwndChange(double time, int previousRcvwnd, int rcvwnd) {
+                events.add(l -> l.onRcvwndChange(time, previousRcvwnd, rcvwnd));
+            }
+
+            @Override
+            public void onSkippedRounds(int quantum, int rounds, double rtt, double startCwnd, double cwnd,
+                    long remaining, int ssthresh, int rcvwnd) {
+                events.add(l -> l.onSkippedRounds(quantum, rounds, rtt, startCwnd, cwnd, remaining, ssthresh, rcvwnd));
+            }
+
+            @Override
+            public void onSegmentLoss(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd,
+                    double rtoExpiry, int rtoScaleFactor) {
+                events.add(l -> l.onSegmentLoss(time, remaining, sent, cwnd, ssthresh, rcvwnd, rtoExpiry,
+                        rtoScaleFactor));
+            }
+
+            @Override
+            public void onRtoBackoff(double time, int ssthresh, int rcvwnd, int rtoScaleFactor) {
+                events.add(l -> l.onRtoBackoff(time, ssthresh, rcvwnd, rtoScaleFactor));
+            }
+
+            @Override
+            public void onTimeout(int quantum, double time, int ssthresh) {
+                events.add(l -> l.onTimeout(quantum, time, ssthresh));
+            }
+
+            @Override
+            public void onEnd(double time, double cwnd, int ssthresh, int rcvwnd, boolean timedOut) {
+                events.add(l -> l.onEnd(time, cwnd, ssthresh, rcvwnd, timedOut));
+            }
+        });
+        return events;
+    }
+
+    private static class DiscardingConsoleListener extends ConsoleListener { // lines formatted, but not printed
+
+        @Override
+        protected void println(String line) {
+            sink = line;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package it.univr.reti;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Check that fast forward changes nothing in plots: random scenarios (and a
+ * few known to be tricky) are plotted with and without it, and the images
+ * must have the same pixels.
+ *
+ * <pre>
+ * javac -d out src/it/univr/reti/*.java bench/it/univr/reti/*.java
+ * java -Djava.awt.headless=true -cp out it.univr.reti.TCPPlotCheck [scenarios] [seed]
+ * </pre>
+ *
+ * Exits with 1 if any scenario is plotted differently.
+ */
+public class TCPPlotCheck {
+
+    private static final double[] RTTS = {0.1, 0.3, 0.5, 1, 2};
+    private static final int[] MSS = {500, 900, 1000, 1500};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+        List<TCPScenario> scenarios = new ArrayList<>();
+        scenarios.add(new TCPScenario("rcvwnd step in a skipped span", 900, 65700, TCPSimulator.INITIAL_RCVWND,
+                null, new double[][]{{0, 4500}, {3.154, 26100}}, 0.3, TCPSimulator.DOUBLE_RTT));
+        scenarios.add(new TCPScenario("first round lost", 1000, 60000, TCPSimulator.INITIAL_RCVWND,
+                new double[][]{{0, 0.4}}, new double[][]{{0, 8000}}, 0.3, TCPSimulator.DOUBLE_RTT));
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < count; i++) {
+            scenarios.add(scenario(random, "random " + i));
+        }
+
+        int checked = 0, different = 0;
+        for (TCPScenario scenario : scenarios) {
+            BufferedImage normal, fastForwarded;
+            try {
+                normal = image(scenario.simulator());
+                fastForwarded = image(scenario.simulator().fastForward(true));
+            } catch (IllegalArgumentException e) { // invalid, both ways
+                continue;
+            }
+
+            checked++;
+            long pixels = differentPixels(normal, fastForwarded);
+            if (pixels > 0) {
+                different++;
+                System.out.println(pixels + " pixels differ: " + scenario);
+            }
+        }
+
+        System.out.println(checked + " scenarios plotted, " + different + " differently with fast forward");
+        System.exit(different == 0 ? 0 : 1);
+    }
+
+    private static BufferedImage image(TCPSimulator simulator) {
+        TCPPlot plot = new TCPPlot(simulator.getRtt());
+        simulator.run(plot);
+        return plot.getImage();
+    }
+
+    private static long differentPixels(BufferedImage a, BufferedImage b) {
+        long pixels = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                pixels += a.getRGB(x, y) != b.getRGB(x, y) ? 1 : 0;
+            }
+        }
+        return pixels;
+    }
+
+    private static TCPScenario scenario(SplittableRandom random, String id) { // as exercises have them, roughly
+        int mss = MSS[random.nextInt(MSS.length)];
+        double rtt = RTTS[random.nextInt(RTTS.length)];
+        long data = (long) mss * random.nextInt(20, 2000);
+
+        double[][] rcvwnds = new double[random.nextInt(1, 5)][];
+        double time = 0;
+        for (int i = 0; i < rcvwnds.length; i++) {
+            rcvwnds[i] = new double[]{time, mss * random.nextInt(1, 40)};
+            time += random.nextDouble(0.5, 10);
+        }
+
+        double[][] networkDowns = new double[random.nextInt(0, 4)][];
+        time = random.nextDouble(0, 5);
+        for (int i = 0; i < networkDowns.length; i++) {
+            double finish = time + random.nextDouble(0.1, 3);
+            networkDowns[i] = new double[]{time, finish};
+            time = finish + random.nextDouble(1, 20);
+        }
+
+        return new TCPScenario(id, mss, data, random.nextBoolean() ? TCPSimulator.INITIAL_RCVWND
+                : TCPSimulator.HALF_INITIAL_RCVWND, networkDowns, rcvwnds, rtt, TCPSimulator.DOUBLE_RTT);
+    }
+}
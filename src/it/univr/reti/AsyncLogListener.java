@@ -0,0 +1,97 @@
+package it.univr.reti;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Same lines as {@link ConsoleListener}, buffered and written to a writer by a
+ * background thread, so that the simulation does not wait for I/O. Two buffers
+ * are swapped: one is filled while the other one is written.
+ */
+public class AsyncLogListener extends ConsoleListener implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 64 * 1024; // chars buffered before being handed to the writer thread
+
+    private final Writer out;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "simulation-log-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private StringBuilder buffer = new StringBuilder(BUFFER_SIZE); // being filled
+    private StringBuilder spare = new StringBuilder(BUFFER_SIZE); // being written (or free)
+    private Future<?> pending; // last write handed to the writer thread
+
+    public AsyncLogListener(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    protected void println(String line) {
+        buffer.append(line).append(System.lineSeparator());
+
+        if (buffer.length() >= BUFFER_SIZE) {
+            handOver();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            handOver();
+            await();
+            out.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    private void handOver() {
+        await(); // the spare buffer is free once the previous write is over
+
+        StringBuilder full = buffer;
+        buffer = spare;
+        spare = full;
+        buffer.setLength(0);
+
+        pending = writer.submit(() -> {
+            out.append(full);
+            return null;
+        });
+    }
+
+    private void await() {
+        if (pending == null) {
+            return;
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) { // the buffer cannot be reused before the write is over, so wait anyway
+                try {
+                    pending.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw new UncheckedIOException(io);
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pending = null;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
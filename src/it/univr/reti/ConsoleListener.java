@@ -0,0 +1,59 @@
+package it.univr.reti;
+
+import java.text.DecimalFormat;
+
+public class ConsoleListener implements SimulationListener {
+
+    private final DecimalFormat f = new DecimalFormat("##.#"); // not thread safe, one per listener
+
+    @Override
+    public void onStart() {
+        println("\t----- SOT -----");
+    }
+
+    @Override
+    public void onRound(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd) {
+        println(status(time, remaining, sent, cwnd, ssthresh, rcvwnd));
+    }
+
+    @Override
+    public void onSkippedRounds(int quantum, int rounds, double rtt, double startCwnd, double cwnd, long remaining,
+            int ssthresh, int rcvwnd) {
+        println("[>]\t---> Skipped " + rounds + " rounds without events, from [" + f.format(quantum * rtt)
+                + "] to [" + f.format((quantum + rounds - 1) * rtt) + "] (remaining = " + remaining + ", cwnd = "
+                + f.format(cwnd) + ")");
+    }
+
+    @Override
+    public void onSegmentLoss(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd,
+            double rtoExpiry, int rtoScaleFactor) {
+        println(status(time, remaining, sent, cwnd, ssthresh, rcvwnd));
+        println("[!]\t---> Segments sent at [" + f.format(time)
+                + "] were lost, restoring cwnd " + (rtoScaleFactor > TCPSimulator.MIN_RTO ? ", doubling and " : "and ")
+                + "waiting RTO until [" + f.format(rtoExpiry)
+                + "]... (" + rtoScaleFactor + "x base RTO)");
+    }
+
+    @Override
+    public void onTimeout(int quantum, double time, int ssthresh) {
+        println("[!]\t---> Reached maximum RTO (" + TCPSimulator.MAX_RTO / 2 + "x base RTO) and timed out. "
+                + "Connection closed at [" + quantum + "]");
+    }
+
+    @Override
+    public void onEnd(double time, double cwnd, int ssthresh, int rcvwnd, boolean timedOut) {
+        println("\t----- EOT -----");
+    }
+
+    protected void println(String line) { // subclasses can print somewhere else
+        System.out.println(line);
+    }
+
+    private String status(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd) {
+        return "[" + f.format(time) + "]\tremaining = " + remaining
+                + "\t   sent = " + sent
+                + "\t   cwnd = " + f.format(cwnd)
+                + "\tssthresh = " + ssthresh
+                + "\t  rcvwnd = " + rcvwnd;
+    }
+}
@@ -0,0 +1,235 @@
+package it.univr.reti;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for scenarios and results, with no dependencies. Objects
+ * are read as maps (keeping the order of their keys), arrays as lists,
+ * numbers as doubles, and true, false and null as themselves.
+ */
+final class Json {
+
+    private static final int MAX_DEPTH = 64; // objects and arrays inside each other, as they are read recursively
+
+    private final String text;
+    private int position = 0; // next character to read
+    private int depth = 0; // objects and arrays being read
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object parse(String text) throws IllegalArgumentException {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.position < text.length()) {
+            throw json.error("Unexpected characters after the value");
+        }
+        return value;
+    }
+
+    static Map<String, Object> parseObject(String text) throws IllegalArgumentException {
+        Object value = parse(text);
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("JSON object expected");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> object = (Map<String, Object>) value;
+        return object;
+    }
+
+    static StringBuilder quote(StringBuilder out, String s) { // as a JSON string, escaped
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' ->
+                    out.append("\\\"");
+                case '\\' ->
+                    out.append("\\\\");
+                case '\n' ->
+                    out.append("\\n");
+                case '\r' ->
+                    out.append("\\r");
+                case '\t' ->
+                    out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"');
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (position == text.length()) {
+            throw error("Value expected");
+        }
+
+        char c = text.charAt(position);
+        return switch (c) {
+            case '{' ->
+                object();
+            case '[' ->
+                array();
+            case '"' ->
+                string();
+            case 't' ->
+                literal("true", Boolean.TRUE);
+            case 'f' ->
+                literal("false", Boolean.FALSE);
+            case 'n' ->
+                literal("null", null);
+            default ->
+                number();
+        };
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        position++; // {
+        enter();
+        skipWhitespace();
+        if (peek('}')) {
+            depth--;
+            return object;
+        }
+
+        do {
+            skipWhitespace();
+            if (position == text.length() || text.charAt(position) != '"') {
+                throw error("Key expected");
+            }
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            object.put(key, value());
+            skipWhitespace();
+        } while (peek(','));
+        expect('}');
+        depth--;
+        return object;
+    }
+
+    private List<Object> array() {
+        List<Object> array = new ArrayList<>();
+        position++; // [
+        enter();
+        skipWhitespace();
+        if (peek(']')) {
+            depth--;
+            return array;
+        }
+
+        do {
+            array.add(value());
+            skipWhitespace();
+        } while (peek(','));
+        expect(']');
+        depth--;
+        return array;
+    }
+
+    private void enter() { // an object or array more, instead of overflowing the stack
+        if (++depth > MAX_DEPTH) {
+            throw error("Too deeply nested (max " + MAX_DEPTH + " levels)");
+        }
+    }
+
+    private String string() {
+        StringBuilder s = new StringBuilder();
+        position++; // "
+        while (position < text.length()) {
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return s.toString();
+            }
+            if (c != '\\') {
+                s.append(c);
+                continue;
+            }
+            if (position == text.length()) {
+                break;
+            }
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case 'n' ->
+                    s.append('\n');
+                case 'r' ->
+                    s.append('\r');
+                case 't' ->
+                    s.append('\t');
+                case 'b' ->
+                    s.append('\b');
+                case 'f' ->
+                    s.append('\f');
+                case 'u' -> {
+                    if (position + 4 > text.length()) {
+                        throw error("Invalid escape");
+                    }
+                    s.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    position += 4;
+                }
+                default -> // " \ /
+                    s.append(escaped);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private Double number() {
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        if (start == position) {
+            throw error("Unexpected character '" + text.charAt(position) + "'");
+        }
+        try {
+            return Double.valueOf(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("Invalid number");
+        }
+    }
+
+    private Object literal(String literal, Object value) {
+        if (!text.startsWith(literal, position)) {
+            throw error("Unexpected character '" + text.charAt(position) + "'");
+        }
+        position += literal.length();
+        return value;
+    }
+
+    private boolean peek(char c) { // consumes c if it is next
+        if (position < text.length() && text.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!peek(c)) {
+            throw error("'" + c + "' expected");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+}
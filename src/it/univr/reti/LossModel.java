@@ -0,0 +1,104 @@
+package it.univr.reti;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random losses, on top of (or instead of) the network downs of a
+ * simulation. A model only describes them and can be shared; every run
+ * starts its own {@link Process}, which draws from the random stream it is
+ * given, so that runs with the same seed lose the same rounds. Models are
+ * told apart by {@link Object#toString()} where runs are stored (see
+ * {@link TCPMonteCarlo#run(TCPResultStore)}), so models of your own need one
+ * to go on with runs stored before.
+ */
+public interface LossModel {
+
+    Process start(SplittableRandom random);
+
+    interface Process {
+
+        boolean isLost(int quantum, double rtt); // asked once per round sent, for increasing quanta
+    }
+
+    static LossModel bernoulli(double probability) { // every round lost on its own, with the same probability
+        checkProbability(probability);
+
+        return named("bernoulli(" + probability + ")", random -> (quantum, rtt) -> random.nextDouble() < probability);
+    }
+
+    static LossModel gilbertElliott(double goodToBad, double badToGood, double lossGood, double lossBad) {
+        // bursts: a good and a bad state, changing every quantum with the given probabilities, each losing
+        // rounds with its own probability
+        checkProbability(goodToBad);
+        checkProbability(badToGood);
+        checkProbability(lossGood);
+        checkProbability(lossBad);
+        if (goodToBad + badToGood == 0) {
+            throw new IllegalArgumentException("Invalid transition probabilities provided (both are 0)");
+        }
+
+        String name = "gilbertElliott(" + goodToBad + ", " + badToGood + ", " + lossGood + ", " + lossBad + ")";
+        return named(name, random -> new Process() {
+            private boolean bad = random.nextDouble() < goodToBad / (goodToBad + badToGood); // as in the long run
+            private int current = 0; // quantum of the state
+
+            @Override
+            public boolean isLost(int quantum, double rtt) {
+                for (; current < quantum; current++) {
+                    bad = bad ? random.nextDouble() >= badToGood : random.nextDouble() < goodToBad;
+                }
+                return random.nextDouble() < (bad ? lossBad : lossGood);
+            }
+        });
+    }
+
+    static LossModel onOff(double meanUp, double meanDown) {
+        // network downs one after the other, up and down for exponential times (in sec) with the given means,
+        // losing rounds as the network downs of a simulation do
+        if (!(meanUp > 0) || !(meanDown > 0) || Double.isInfinite(meanUp) || Double.isInfinite(meanDown)) {
+            throw new IllegalArgumentException("Invalid mean durations provided (must be > 0)");
+        }
+
+        return named("onOff(" + meanUp + ", " + meanDown + ")", random -> new Process() {
+            private double start = exponential(random, meanUp); // of the first network down not over yet
+            private double finish = start + exponential(random, meanDown);
+
+            @Override
+            public boolean isLost(int quantum, double rtt) {
+                double time = quantum * rtt;
+
+                // a network down loses the rounds from a rtt before its start to its finish (or a rtt after its
+                // start), so the first one not over yet is the only one that can
+                while (Math.max(finish, start + rtt) <= time) {
+                    start = finish + exponential(random, meanUp);
+                    finish = start + exponential(random, meanDown);
+                }
+                return start - rtt < time;
+            }
+        });
+    }
+
+    private static LossModel named(String name, LossModel model) { // with a toString(), which lambdas have not
+        return new LossModel() {
+            @Override
+            public Process start(SplittableRandom random) {
+                return model.start(random);
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+
+    private static double exponential(SplittableRandom random, double mean) {
+        return -mean * Math.log(1 - random.nextDouble()); // 1 - u, since u can be 0
+    }
+
+    private static void checkProbability(double probability) {
+        if (!(probability >= 0 && probability <= 1)) {
+            throw new IllegalArgumentException("Invalid probability provided (must be in [0, 1])");
+        }
+    }
+}
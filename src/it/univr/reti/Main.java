@@ -1,7 +1,22 @@
 package it.univr.reti;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 public class Main {
-	public static void main(String args[]) {
+	public static void main(String args[]) throws IOException {
+		if (args.length == 1) { // port to serve simulations on, over HTTP
+			TCPServer server = TCPServer.server().port(Integer.parseInt(args[0])).start();
+			System.out.println("Serving simulations on http://localhost:" + server.getPort() + "/simulate");
+			return;
+		}
+
+		if (args.length == 2) { // scenarios file (.jsonl or .csv) and results file (.jsonl or .csv)
+			long scenarios = TCPBatch.batch().run(Path.of(args[0]), Path.of(args[1]));
+			System.out.println(scenarios + " scenarios simulated, results in " + args[1]);
+			return;
+		}
+
 		double[][] rcvwnds = { // [0]: timestamp, [1]: value
 				{ 0, 14400 },
 				{ 0.5, 10800 },
@@ -0,0 +1,171 @@
+package it.univr.reti;
+
+import java.util.Arrays;
+
+class NetworkDownIndex {
+
+    private static final int QUANTUM_BITS = 32; // used to pack {start, finish} in a single long while sorting
+
+    private final int[] starts; // first quantum in which segments are lost, sorted
+    private final int[] finishes; // first quantum, after start, in which segments are not lost anymore
+    private final int size; // windows (overlapping ones are merged)
+
+    private int cursor = 0; // first window not over at the last time looked up
+    private int lastTime = 0; // last time looked up
+
+    public NetworkDownIndex(double[][] networkDowns, double rtt) { // not checked, overlapping windows are merged
+        this(networkDowns, rtt, null);
+    }
+
+    public NetworkDownIndex(double[][] networkDowns, double rtt, ScheduleViolations violations) {
+        // checked (if violations are collected) and compiled in one pass
+        long[] windows = new long[networkDowns.length];
+        int[] order = new int[networkDowns.length]; // of valid network downs, sorted by start afterwards
+        int valid = 0;
+
+        for (int i = 0; i < networkDowns.length; i++) {
+            if (violations != null) {
+                double[] pair = networkDowns[i];
+                if (pair == null || pair.length != 2) {
+                    violations.add("networkDowns", i, "is not a {start, finish} pair");
+                    continue;
+                }
+                if (!(pair[0] >= 0) || !(pair[0] < pair[1]) || Double.isInfinite(pair[1])) {
+                    violations.add("networkDowns", i, "has invalid values");
+                    continue;
+                }
+                if (pair[1] / rtt >= TCPSimulator.MAX_QUANTA) { // quanta are int, and so are windows when packed
+                    violations.add("networkDowns", i, "finishes too late (after " + TCPSimulator.MAX_QUANTA
+                            + " rounds)");
+                    continue;
+                }
+                order[valid++] = i;
+                if (violations.count() > 0) {
+                    continue; // thrown by the caller, no need to compile the rest
+                }
+            }
+
+            double start = networkDowns[i][0];
+            double finish = networkDowns[i][1];
+
+            // first quantum in which segments are lost (estimated, then adjusted with the actual rule)
+            int first = Math.max(0, (int) ((start - rtt) / rtt) - 1);
+            while (!isNetworkDown(first, start, finish, rtt)) {
+                first++;
+            }
+
+            // first quantum, after the first one, in which segments are not lost anymore
+            int last = Math.max(first + 1, (int) (Math.max(finish, start + rtt) / rtt) - 1);
+            while (last > first + 1 && !isNetworkDown(last - 1, start, finish, rtt)) {
+                last--;
+            }
+            while (isNetworkDown(last, start, finish, rtt)) {
+                last++;
+            }
+
+            windows[i] = (long) first << QUANTUM_BITS | last & 0xFFFFFFFFL; // last unsigned, not sign-extended
+        }
+
+        if (violations != null) {
+            findOverlaps(networkDowns, order, valid, violations);
+        }
+
+        Arrays.sort(windows); // by first quantum, since quanta are not negative
+
+        starts = new int[windows.length];
+        finishes = new int[windows.length];
+        int merged = 0;
+
+        for (long window : windows) {
+            int first = (int) (window >>> QUANTUM_BITS);
+            int last = (int) window;
+
+            // windows can overlap (or touch) even if network downs do not, since they are extended by a rtt
+            if (merged > 0 && first <= finishes[merged - 1]) {
+                finishes[merged - 1] = Math.max(finishes[merged - 1], last);
+            } else {
+                starts[merged] = first;
+                finishes[merged] = last;
+                merged++;
+            }
+        }
+
+        size = merged;
+    }
+
+    private static void findOverlaps(double[][] networkDowns, int[] order, int size, ScheduleViolations violations) {
+        sortByStart(networkDowns, order, size);
+
+        int latest = -1; // among the ones seen so far, the one finishing last
+        for (int k = 0; k < size; k++) {
+            int i = order[k];
+            if (latest >= 0 && networkDowns[i][0] < networkDowns[latest][1]) {
+                violations.add("networkDowns", i, "overlaps networkDowns[" + latest + "]");
+            }
+            if (latest < 0 || networkDowns[i][1] > networkDowns[latest][1]) {
+                latest = i;
+            }
+        }
+    }
+
+    private static void sortByStart(double[][] networkDowns, int[] order, int size) { // merge sort, stable
+        int[] merged = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size - width; low += 2 * width) {
+                int middle = low + width, high = Math.min(low + 2 * width, size);
+                for (int i = low, j = middle, k = low; k < high; k++) {
+                    merged[k] = j == high || i < middle && networkDowns[order[i]][0] <= networkDowns[order[j]][0]
+                            ? order[i++] : order[j++];
+                }
+                System.arraycopy(merged, low, order, low, high - low);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int finish(int i) {
+        return finishes[i];
+    }
+
+    public boolean isNetworkDown(int time) {
+        if (time < lastTime) { // looking backwards, start over
+            cursor = 0;
+        }
+        lastTime = time;
+
+        if (cursor < size && finishes[cursor] <= time) { // window over, look for the next one
+            cursor = firstFinishingAfter(time, cursor);
+        }
+
+        return cursor < size && starts[cursor] <= time;
+    }
+
+    private int firstFinishingAfter(int time, int from) { // binary search, finishes are sorted as well
+        int low = from, high = size;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (finishes[middle] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private static boolean isNetworkDown(int time, double start, double finish, double rtt) {
+        // check two cases:
+        // - time is exactly in a network down interval
+        // - time is less than a rtt from a network down (hence segments are supposed to be lost during sending)
+        return time * rtt >= start && time * rtt < finish || Math.abs(time * rtt - start) < rtt;
+    }
+}
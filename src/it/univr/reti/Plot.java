@@ -3,24 +3,39 @@ package it.univr.reti;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.Point;
-import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Shape;
 import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import javax.imageio.ImageIO;
 
 /**
@@ -55,6 +70,16 @@ public class Plot {
         TOP, CENTER, BOTTOM
     }
 
+    private static final Stroke MARKER_STROKE = new BasicStroke(2); // strokes are immutable, so one is enough
+    private static final int MARKER_STROKE_MARGIN = 4; // room left around markers in their sprites
+    private static final int PATH_SEGMENTS = 64; // segments drawn with a single call
+    private static final Stroke DEFAULT_STROKE = new BasicStroke(); // the one graphics start with
+    public static final String SVG = "svg"; // vector format, saved without drawing an image
+    private static final int MAX_TEXT_BOUNDS = 4096; // strings measured per font, forgotten all at once beyond
+    private static final Map<List<Object>, Map<String, Rectangle2D>> TEXT_BOUNDS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<DecimalFormat> NUMBER_FORMAT = ThreadLocal.withInitial(
+            () -> new DecimalFormat("##.#")); // not thread safe, and plots are drawn by many threads at once
+
     private PlotOptions opts = new PlotOptions();
 
     private Rectangle boundRect;
@@ -91,6 +116,7 @@ public class Plot {
         private int tickSize = 5;
         private Font labelFont = new Font("Arial", 0, 12);
         private LegendFormat legend = LegendFormat.NONE;
+        private int parallelism = 1; // bands of the plot area drawn at the same time
 
         private PlotOptions() {
         }
@@ -165,6 +191,11 @@ public class Plot {
             return this;
         }
 
+        public PlotOptions parallelism(int threads) { // worth it for large images with many points
+            this.parallelism = Math.max(1, threads);
+            return this;
+        }
+
         public PlotOptions legend(LegendFormat legend) {
             this.legend = legend;
             return this;
@@ -220,6 +251,11 @@ public class Plot {
         return this;
     }
 
+    public Plot clearSeries() { // to add them again, e.g. in a different order
+        dataSeriesMap.clear();
+        return this;
+    }
+
     private void calc(Graphics2D g) {
         plotArea.calc(g);
     }
@@ -233,6 +269,40 @@ public class Plot {
 
     private BufferedImage draw() {
         BufferedImage image = new BufferedImage(opts.width, opts.height, BufferedImage.TYPE_INT_RGB);
+        draw(createGraphics(image), opts.parallelism > 1 ? image : null);
+        TCPMetrics.count(TCPMetrics.Counter.PIXELS_DRAWN, (long) opts.width * opts.height);
+        return image;
+    }
+
+    private void draw(Graphics2D g, BufferedImage bands) { // series drawn in bands of the image, if given
+        try {
+            TCPMetrics.LayoutEvent layout = TCPMetrics.begin(new TCPMetrics.LayoutEvent());
+            calc(g);
+            drawBackground(g);
+            plotArea.draw(g);
+            TCPMetrics.end(layout, dataSeriesMap.size());
+
+            TCPMetrics.SeriesDrawingEvent drawing = TCPMetrics.begin(new TCPMetrics.SeriesDrawingEvent());
+            long points = 0;
+            for (DataSeries series : dataSeriesMap.values()) {
+                series.prepare(g);
+                points += series.pointsDrawn();
+            }
+            if (bands != null) {
+                drawSeriesInBands(bands);
+            } else {
+                for (DataSeries series : dataSeriesMap.values()) {
+                    series.draw(g);
+                }
+            }
+            TCPMetrics.end(drawing, points);
+            TCPMetrics.count(TCPMetrics.Counter.POINTS_DRAWN, points);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private static Graphics2D createGraphics(BufferedImage image) {
         Graphics2D g = image.createGraphics();
 
         RenderingHints rh = new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
@@ -240,15 +310,37 @@ public class Plot {
         rh.put(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
         // rh.put(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
         g.setRenderingHints(rh);
+        return g;
+    }
+
+    // the plot area is split in horizontal bands, each one drawn with all the series by its own thread into its rows
+    // of the image: series only draw inside the plot area, and they are only read while drawing
+    private void drawSeriesInBands(BufferedImage image) {
+        Rectangle area = plotArea.plotClipRect;
+        int bands = Math.min(opts.parallelism, area.height);
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[bands];
+
+        for (int i = 1; i < bands; i++) {
+            int band = i;
+            tasks[i] = ForkJoinPool.commonPool().submit(() -> drawSeriesInBand(image, band, bands));
+        }
+        drawSeriesInBand(image, 0, bands);
+        for (int i = 1; i < bands; i++) {
+            tasks[i].join();
+        }
+    }
+
+    private void drawSeriesInBand(BufferedImage image, int band, int bands) {
+        Rectangle area = plotArea.plotClipRect;
+        int top = area.y + area.height * band / bands;
+        int bottom = area.y + area.height * (band + 1) / bands;
+        Graphics2D g = createGraphics(image.getSubimage(0, top, opts.width, bottom - top));
 
         try {
-            calc(g);
-            drawBackground(g);
-            plotArea.draw(g);
+            g.translate(0, -top); // same coordinates as the whole image
             for (DataSeries series : dataSeriesMap.values()) {
                 series.draw(g);
             }
-            return image;
         } finally {
             g.dispose();
         }
@@ -260,10 +352,88 @@ public class Plot {
     }
 
     public void save(String fileName, String type) throws IOException {
+        if (type.equalsIgnoreCase(SVG)) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName + "." + type))) {
+                saveSvg(out);
+            }
+            return;
+        }
         clear();
         BufferedImage bi = draw();
         File outputFile = new File(fileName + "." + type);
+        TCPMetrics.EncodingEvent event = TCPMetrics.begin(new TCPMetrics.EncodingEvent());
         ImageIO.write(bi, type, outputFile);
+        endEncoding(event, type, (long) opts.width * opts.height);
+    }
+
+    public void save(OutputStream out, String type) throws IOException {
+        if (type.equalsIgnoreCase(SVG)) {
+            saveSvg(out);
+            return;
+        }
+        clear();
+        BufferedImage bi = draw();
+        TCPMetrics.EncodingEvent event = TCPMetrics.begin(new TCPMetrics.EncodingEvent());
+        if (!ImageIO.write(bi, type, out)) {
+            throw new IOException("No writer found for " + type);
+        }
+        endEncoding(event, type, (long) opts.width * opts.height);
+    }
+
+    private static void endEncoding(TCPMetrics.EncodingEvent event, String type, long items) {
+        event.format = type;
+        TCPMetrics.end(event, items);
+    }
+
+    public static boolean canSave(String type) { // svg, or any format ImageIO can write
+        return type.equalsIgnoreCase(SVG) || ImageIO.getImageWritersByFormatName(type).hasNext();
+    }
+
+    // the same layout as the image, written element by element while walking the series: neither the image nor the
+    // document are kept in memory, and the out stream is flushed but left open
+    private void saveSvg(OutputStream out) throws IOException {
+        clear();
+        Graphics2D g = createGraphics(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB)); // only measures text
+        try {
+            TCPMetrics.LayoutEvent layout = TCPMetrics.begin(new TCPMetrics.LayoutEvent());
+            calc(g);
+            TCPMetrics.end(layout, dataSeriesMap.size());
+
+            TCPMetrics.EncodingEvent event = TCPMetrics.begin(new TCPMetrics.EncodingEvent());
+            long points = 0;
+            SvgWriter svg = new SvgWriter(out, g);
+            svg.start(opts.width, opts.height);
+            svg.rect(0, 0, opts.width, opts.height, opts.backgroundColor, null, null);
+            plotArea.svg(svg);
+
+            svg.raw("<defs>\n");
+            Rectangle clip = plotArea.plotClipRect;
+            svg.raw("<clipPath id=\"plot-area\">");
+            svg.rect(clip.x, clip.y, clip.width, clip.height, null, null, null);
+            svg.raw("</clipPath>\n");
+            int i = 0;
+            for (DataSeries series : dataSeriesMap.values()) { // markers defined once, then used at each point
+                if (series.stamped()) {
+                    svg.raw("<g id=\"marker-" + i + "\">");
+                    series.svgMarker(svg, 0, 0, 0, 0);
+                    svg.raw("</g>\n");
+                }
+                i++;
+            }
+            svg.raw("</defs>\n");
+
+            svg.raw("<g clip-path=\"url(#plot-area)\">\n");
+            i = 0;
+            for (DataSeries series : dataSeriesMap.values()) {
+                series.svg(svg, "#marker-" + i++);
+                points += series.data == null ? 0 : series.data.size();
+            }
+            svg.raw("</g>\n");
+            svg.finish();
+            endEncoding(event, SVG, points);
+        } finally {
+            g.dispose();
+        }
     }
 
     public BufferedImage getImage() {
@@ -271,10 +441,46 @@ public class Plot {
         return draw();
     }
 
+    // draws again only a region of an image returned by getImage(), e.g. after appending points: the layout (axes,
+    // labels, legend) must be the same as when the image was drawn
+    public void redraw(BufferedImage image, Rectangle region) {
+        Rectangle r = region.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if (r.isEmpty()) {
+            return;
+        }
+
+        clear();
+        Graphics2D g = createGraphics(image.getSubimage(r.x, r.y, r.width, r.height));
+        g.translate(-r.x, -r.y); // same coordinates as the whole image
+        draw(g, null);
+        TCPMetrics.count(TCPMetrics.Counter.PIXELS_DRAWN, (long) r.width * r.height);
+    }
+
+    // region of the image showing the series between two x values (lines and markers included), as last drawn
+    public Rectangle region(double fromX, double toX) {
+        Rectangle clip = plotArea.plotClipRect;
+        if (xAxes.isEmpty()) {
+            return new Rectangle(clip);
+        }
+
+        Axis axis = xAxes.values().iterator().next();
+        int x1 = toInt(x2x(fromX, axis.opts.range, plotArea.xPlotRange));
+        int x2 = toInt(x2x(toX, axis.opts.range, plotArea.xPlotRange));
+        int margin = 1;
+        for (DataSeries series : dataSeriesMap.values()) {
+            margin = Math.max(margin, Math.max(series.opts.lineWidth, series.opts.markerSize + MARKER_STROKE_MARGIN));
+        }
+
+        Rectangle region = new Rectangle(Math.min(x1, x2) - margin, clip.y, Math.abs(x2 - x1) + margin * 2,
+                clip.height);
+        return region.intersection(clip);
+    }
+
     private class Legend {
 
         Rectangle rect;
         Rectangle2D labelRect;
+        List<Object> labelKey; // names and font labelRect was measured for
         public int entryWidth;
         public int entryWidthPadded;
         public int entryCount;
@@ -289,6 +495,8 @@ public class Plot {
         private Rectangle plotRect = new Rectangle();
         private Rectangle plotClipRect = new Rectangle();
         private Legend legend = new Legend();
+        private List<Object> xLabelsKey; // axes, ranges and font the labels of the axes were made for
+        private List<Object> yLabelsKey;
 
         private Range xPlotRange = new Range(0, 0);
         private Range yPlotRange = new Range(0, 0);
@@ -327,8 +535,7 @@ public class Plot {
             calcAxisLabels(g, true);
             calcAxisLabels(g, false);
             g.setFont(opts.titleFont);
-            FontMetrics fm = g.getFontMetrics();
-            Rectangle2D titleRect = fm.getStringBounds(opts.title, g);
+            Rectangle2D titleRect = textBounds(g, opts.title);
             g.setFont(opts.labelFont);
             // fm = g.getFontMetrics();
             int xAxesHeight = 0, xAxesHalfWidth = 0;
@@ -399,18 +606,26 @@ public class Plot {
             int bottomY = plotBorderRect.y + plotBorderRect.height - 1;
 
             for (int i = 0; i < opts.grids.x + 1; i++) {
-                int x = toInt(plotRect.x + (plotRect.getWidth() / opts.grids.x) * i);
+                int x = gridX(i);
                 g.drawLine(x, topY, x, bottomY);
             }
 
             for (int i = 0; i < opts.grids.y + 1; i++) {
-                int y = toInt(plotRect.y + (plotRect.getHeight() / opts.grids.y) * i);
+                int y = gridY(i);
                 g.drawLine(leftX, y, rightX, y);
             }
 
             g.setStroke(stroke);
         }
 
+        private int gridX(int i) {
+            return toInt(plotRect.x + (plotRect.getWidth() / opts.grids.x) * i);
+        }
+
+        private int gridY(int i) {
+            return toInt(plotRect.y + (plotRect.getHeight() / opts.grids.y) * i);
+        }
+
         private void calcAxes() {
             Axis xAxis = xAxes.isEmpty() ? new Axis("", null) : xAxes.values().iterator().next();
             Axis yAxis = yAxes.isEmpty() ? new Axis("", null) : yAxes.values().iterator().next();
@@ -435,19 +650,29 @@ public class Plot {
         }
 
         private void calcAxisLabels(Graphics2D g, boolean isX) {
-            FontMetrics fm = g.getFontMetrics();
-            Rectangle2D rect;
-            double w = 0, h = 0;
+            // labels in the order they are drawn (y ones from the top), formatted and measured again only if an
+            // axis, its range or the font changed since the last time
             Map<String, Axis> axes = isX ? xAxes : yAxes;
             int grids = isX ? opts.grids.x : opts.grids.y;
+            List<Object> key = new ArrayList<>(List.of(g.getFont(), g.getFontRenderContext(), grids));
+            for (Axis axis : axes.values()) {
+                key.addAll(Arrays.asList(axis, axis.opts.range.min, axis.opts.range.max, axis.opts.format));
+            }
+            if (key.equals(isX ? xLabelsKey : yLabelsKey)) {
+                return;
+            }
+
+            Rectangle2D rect;
+            double w = 0, h = 0;
             for (Map.Entry<String, Axis> entry : axes.entrySet()) {
                 Axis axis = entry.getValue();
                 axis.labels = new String[grids + 1];
-                axis.labelRect = fm.getStringBounds("", g);
-                double xStep = axis.opts.range.diff / grids;
+                axis.labelRect = (Rectangle2D) textBounds(g, "").clone();
+                double step = axis.opts.range.diff / grids;
                 for (int j = 0; j < grids + 1; j++) {
-                    axis.labels[j] = formatDouble(axis.opts.range.min + xStep * j, axis.opts.format);
-                    rect = fm.getStringBounds(axis.labels[j], g);
+                    axis.labels[j] = formatDouble(isX ? axis.opts.range.min + step * j
+                            : axis.opts.range.max - step * j, axis.opts.format);
+                    rect = textBounds(g, axis.labels[j]);
                     if (rect.getWidth() > w) {
                         w = rect.getWidth();
                     }
@@ -457,6 +682,12 @@ public class Plot {
                 }
                 axis.labelRect.setRect(0, 0, w, h);
             }
+
+            if (isX) {
+                xLabelsKey = key;
+            } else {
+                yLabelsKey = key;
+            }
         }
 
         private void calcRange(boolean isX) {
@@ -497,16 +728,14 @@ public class Plot {
             int axisOffset = 0;
             for (Map.Entry<String, Axis> entry : xAxes.entrySet()) {
                 Axis axis = entry.getValue();
-                double xStep = axis.opts.range.diff / opts.grids.x;
 
                 drawLabel(g, axis.name, rightX + opts.labelPadding, bottomY + axisOffset, HorizAlign.LEFT,
                         VertAlign.CENTER);
                 g.drawLine(plotRect.x, bottomY + axisOffset, plotRect.x + plotRect.width, bottomY + axisOffset);
 
                 for (int j = 0; j < opts.grids.x + 1; j++) {
-                    int x = toInt(plotRect.x + (plotRect.getWidth() / opts.grids.x) * j);
-                    drawLabel(g, formatDouble(axis.opts.range.min + xStep * j, axis.opts.format), x,
-                            bottomYPadded + axisOffset, HorizAlign.CENTER, VertAlign.TOP);
+                    int x = gridX(j);
+                    drawLabel(g, axis.labels[j], x, bottomYPadded + axisOffset, HorizAlign.CENTER, VertAlign.TOP);
                     g.drawLine(x, bottomY + axisOffset, x, bottomY + opts.tickSize + axisOffset);
                 }
                 axisOffset += toInt(axis.labelRect.getHeight() + opts.labelPadding * 2);
@@ -515,7 +744,6 @@ public class Plot {
             axisOffset = 0;
             for (Map.Entry<String, Axis> entry : yAxes.entrySet()) {
                 Axis axis = entry.getValue();
-                double yStep = axis.opts.range.diff / opts.grids.y;
 
                 drawLabel(g, axis.name, leftXPadded - axisOffset,
                         plotBorderRect.y - toInt(axis.labelRect.getHeight() + opts.labelPadding), HorizAlign.RIGHT,
@@ -524,9 +752,8 @@ public class Plot {
                         plotRect.y);
 
                 for (int j = 0; j < opts.grids.y + 1; j++) {
-                    int y = toInt(plotRect.y + (plotRect.getHeight() / opts.grids.y) * j);
-                    drawLabel(g, formatDouble(axis.opts.range.max - yStep * j, axis.opts.format),
-                            leftXPadded - axisOffset, y, HorizAlign.RIGHT, VertAlign.CENTER);
+                    int y = gridY(j);
+                    drawLabel(g, axis.labels[j], leftXPadded - axisOffset, y, HorizAlign.RIGHT, VertAlign.CENTER);
                     g.drawLine(plotBorderRect.x - axisOffset, y, plotBorderRect.x - opts.tickSize - axisOffset, y);
                 }
                 axisOffset += toInt(axis.labelRect.getWidth() + opts.labelPadding * 2);
@@ -543,19 +770,12 @@ public class Plot {
                 return;
             }
 
-            FontMetrics fm = g.getFontMetrics();
+            calcLegendLabels(g);
             Iterator<DataSeries> it = dataSeriesMap.values().iterator();
-            legend.labelRect = fm.getStringBounds(it.next().nameWithAxes, g);
+            it.next();
             int legendSignSize = opts.defaultLegendSignSize;
             while (it.hasNext()) {
                 DataSeries series = it.next();
-                Rectangle2D rect = fm.getStringBounds(series.nameWithAxes, g);
-                if (rect.getWidth() > legend.labelRect.getWidth()) {
-                    legend.labelRect.setRect(0, 0, rect.getWidth(), legend.labelRect.getHeight());
-                }
-                if (rect.getHeight() > legend.labelRect.getHeight()) {
-                    legend.labelRect.setRect(0, 0, legend.labelRect.getWidth(), rect.getHeight());
-                }
                 switch (series.opts.marker) {
                     case CIRCLE, SQUARE -> {
                         if (series.opts.markerSize + opts.defaultLegendSignSize > legendSignSize) {
@@ -613,6 +833,29 @@ public class Plot {
             }
         }
 
+        private void calcLegendLabels(Graphics2D g) { // room of the widest and highest name, measured again if needed
+            List<Object> key = new ArrayList<>(List.of(g.getFont(), g.getFontRenderContext()));
+            for (DataSeries series : dataSeriesMap.values()) {
+                key.add(series.nameWithAxes);
+            }
+            if (key.equals(legend.labelKey)) {
+                return;
+            }
+
+            Iterator<DataSeries> it = dataSeriesMap.values().iterator();
+            legend.labelRect = (Rectangle2D) textBounds(g, it.next().nameWithAxes).clone();
+            while (it.hasNext()) {
+                Rectangle2D rect = textBounds(g, it.next().nameWithAxes);
+                if (rect.getWidth() > legend.labelRect.getWidth()) {
+                    legend.labelRect.setRect(0, 0, rect.getWidth(), legend.labelRect.getHeight());
+                }
+                if (rect.getHeight() > legend.labelRect.getHeight()) {
+                    legend.labelRect.setRect(0, 0, legend.labelRect.getWidth(), rect.getHeight());
+                }
+            }
+            legend.labelKey = key;
+        }
+
         private void drawLegend(Graphics2D g) {
             if (opts.legend == LegendFormat.NONE) {
                 return;
@@ -656,6 +899,90 @@ public class Plot {
                     VertAlign.CENTER);
         }
 
+        private void svg(SvgWriter svg) throws IOException { // what draw(g) draws, as svg elements
+            Color fg = opts.foregroundColor;
+            svg.rect(plotBorderRect.x, plotBorderRect.y, plotBorderRect.width, plotBorderRect.height, null, fg,
+                    DEFAULT_STROKE);
+            svg.text(opts.title, opts.titleFont, fg, plotBorderRect.x + toInt(plotBorderRect.getWidth() / 2),
+                    opts.padding, HorizAlign.CENTER, VertAlign.TOP);
+
+            svg.path(null, opts.gridColor, opts.gridStroke); // the whole grid in a single path
+            for (int i = 0; i < opts.grids.x + 1; i++) {
+                svg.moveTo(gridX(i), plotBorderRect.y + 1);
+                svg.lineTo(gridX(i), plotBorderRect.y + plotBorderRect.height - 1);
+            }
+            for (int i = 0; i < opts.grids.y + 1; i++) {
+                svg.moveTo(plotBorderRect.x + 1, gridY(i));
+                svg.lineTo(plotBorderRect.x + plotBorderRect.width - 1, gridY(i));
+            }
+            svg.endPath();
+
+            int rightX = plotBorderRect.x + plotBorderRect.width;
+            int bottomY = plotBorderRect.y + plotBorderRect.height;
+            int axisOffset = 0;
+            for (Axis axis : xAxes.values()) {
+                int y = bottomY + axisOffset;
+                svg.text(axis.name, opts.labelFont, fg, rightX + opts.labelPadding, y, HorizAlign.LEFT,
+                        VertAlign.CENTER);
+                svg.path(null, fg, DEFAULT_STROKE);
+                svg.moveTo(plotRect.x, y);
+                svg.lineTo(plotRect.x + plotRect.width, y);
+                for (int j = 0; j < opts.grids.x + 1; j++) {
+                    svg.moveTo(gridX(j), y);
+                    svg.lineTo(gridX(j), y + opts.tickSize);
+                }
+                svg.endPath();
+                for (int j = 0; j < opts.grids.x + 1; j++) {
+                    svg.text(axis.labels[j], opts.labelFont, fg, gridX(j), y + opts.labelPadding, HorizAlign.CENTER,
+                            VertAlign.TOP);
+                }
+                axisOffset += toInt(axis.labelRect.getHeight() + opts.labelPadding * 2);
+            }
+
+            axisOffset = 0;
+            for (Axis axis : yAxes.values()) {
+                int x = plotBorderRect.x - axisOffset;
+                svg.text(axis.name, opts.labelFont, fg, x - opts.labelPadding,
+                        plotBorderRect.y - toInt(axis.labelRect.getHeight() + opts.labelPadding), HorizAlign.RIGHT,
+                        VertAlign.CENTER);
+                svg.path(null, fg, DEFAULT_STROKE);
+                svg.moveTo(x, plotRect.y + plotRect.height);
+                svg.lineTo(x, plotRect.y);
+                for (int j = 0; j < opts.grids.y + 1; j++) {
+                    svg.moveTo(x, gridY(j));
+                    svg.lineTo(x - opts.tickSize, gridY(j));
+                }
+                svg.endPath();
+                for (int j = 0; j < opts.grids.y + 1; j++) {
+                    svg.text(axis.labels[j], opts.labelFont, fg, x - opts.labelPadding, gridY(j), HorizAlign.RIGHT,
+                            VertAlign.CENTER);
+                }
+                axisOffset += toInt(axis.labelRect.getWidth() + opts.labelPadding * 2);
+            }
+
+            if (opts.legend == LegendFormat.NONE) {
+                return;
+            }
+            svg.rect(legend.rect.x, legend.rect.y, legend.rect.width, legend.rect.height, null, fg, DEFAULT_STROKE);
+            int labelHeight = toInt(legend.labelRect.getHeight());
+            int x = legend.rect.x + opts.labelPadding;
+            int y = legend.rect.y + opts.labelPadding + labelHeight / 2;
+            int i = 0;
+            for (DataSeries series : dataSeriesMap.values()) { // in the same places as drawLegend(g)
+                series.svgLegendEntry(svg, x, y);
+                if (opts.legend == LegendFormat.RIGHT) {
+                    y += opts.labelPadding + labelHeight;
+                } else {
+                    x += legend.entryWidthPadded;
+                    if ((i + 1) % legend.xCount == 0) {
+                        x = legend.rect.x + opts.labelPadding;
+                        y += opts.labelPadding + labelHeight;
+                    }
+                }
+                i++;
+            }
+        }
+
     }
 
     public static class Range {
@@ -751,6 +1078,7 @@ public class Plot {
         private int markerSize = 10;
         private Color markerColor = Color.WHITE;
         private Color areaColor = null;
+        private boolean levelOfDetail = true;
         private String xAxisName;
         private String yAxisName;
         private Axis xAxis;
@@ -796,6 +1124,11 @@ public class Plot {
             return this;
         }
 
+        public DataSeriesOptions levelOfDetail(boolean enabled) { // thin series with more points than pixels
+            this.levelOfDetail = enabled;
+            return this;
+        }
+
         public DataSeriesOptions xAxis(String name) {
             this.xAxisName = name;
             return this;
@@ -823,64 +1156,207 @@ public class Plot {
 
     public static class Data {
 
-        private double[] x1;
-        private double[] y1;
-        private List<Double> x2;
-        private List<Double> y2;
+        private static final int INITIAL_CAPACITY = 16;
+
+        private double[] x; // columns, filled up to entries: one point each, unless there are runs
+        private double[] y;
+        private int entries;
+        private int size; // points
+        private double[] step; // runs, null until the first one: entry e holds the count[e] points from first[e] on,
+        private int[] first; // at x = (x[e] + k) * step[e], all at y[e] (a step of 0 is a single point at x[e])
+        private int[] count;
+        private double minX; // ranges, kept up to date while appending
+        private double maxX;
+        private double minY;
+        private double maxY;
 
         private Data() {
+            this.x = new double[INITIAL_CAPACITY];
+            this.y = new double[INITIAL_CAPACITY];
         }
 
-        public Data xy(double[] x, double[] y) {
-            this.x1 = x;
-            this.y1 = y;
+        public Data xy(double[] x, double[] y) { // arrays are used as they are, not copied
+            if (x.length != y.length) {
+                throw new IllegalArgumentException("x and y must have the same length");
+            }
+            this.x = x;
+            this.y = y;
+            this.entries = this.size = x.length;
+            this.step = null;
+            this.first = this.count = null;
+            updateRanges(); // so later changes to the arrays are not seen by ranges
             return this;
         }
 
         public Data xy(double x, double y) {
-            if (this.x2 == null || this.y2 == null) {
-                this.x2 = new ArrayList<>(10);
-                this.y2 = new ArrayList<>(10);
+            grow();
+            this.x[entries] = x;
+            this.y[entries] = y;
+            if (step != null) {
+                step[entries] = 0;
+                first[entries] = size;
+                count[entries] = 1;
             }
-            x2.add(x);
-            y2.add(y);
+            entries++;
+            updateRanges(size++, x, y);
             return this;
         }
 
-        public Data xy(List<Double> x, List<Double> y) {
-            this.x2 = x;
-            this.y2 = y;
+        public Data xy(List<Double> x, List<Double> y) { // values are copied, later changes to the lists are not seen
+            if (x.size() != y.size()) {
+                throw new IllegalArgumentException("x and y must have the same size");
+            }
+            this.x = new double[x.size()];
+            this.y = new double[y.size()];
+            for (int i = 0; i < this.x.length; i++) {
+                this.x[i] = x.get(i);
+                this.y[i] = y.get(i);
+            }
+            this.entries = this.size = this.x.length;
+            this.step = null;
+            this.first = this.count = null;
+            updateRanges();
             return this;
         }
 
-        public int size() {
-            if (x1 != null) {
-                return x1.length;
+        // count points at x = (from + k) * step for k from 0, all at y, kept as one entry until they are read
+        public Data run(double from, int count, double step, double y) {
+            if (count < 0 || !(step > 0)) {
+                throw new IllegalArgumentException("Invalid run provided (" + count + " points, step " + step + ")");
+            }
+            if (count == 0) {
+                return this;
             }
-            if (x2 != null) {
-                return x2.size();
+            if (size + count < 0) {
+                throw new IllegalArgumentException("Invalid run provided (more than " + Integer.MAX_VALUE + " points)");
             }
-            return 0;
+            if (this.step == null) { // every entry so far is a single point
+                this.step = new double[x.length];
+                this.first = new int[x.length];
+                this.count = new int[x.length];
+                for (int e = 0; e < entries; e++) {
+                    this.first[e] = e;
+                    this.count[e] = 1;
+                }
+            }
+            grow();
+            this.x[entries] = from;
+            this.y[entries] = y;
+            this.step[entries] = step;
+            this.first[entries] = size;
+            this.count[entries] = count;
+            entries++;
+            updateRanges(size, from * step, y);
+            updateRanges(size + count - 1, (from + (count - 1)) * step, y);
+            size += count;
+            return this;
+        }
+
+        private void grow() { // also stops writing into arrays given to xy(double[], double[])
+            if (entries < x.length) {
+                return;
+            }
+            int capacity = Math.max(INITIAL_CAPACITY, entries + (entries >> 1));
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            if (step != null) {
+                step = Arrays.copyOf(step, capacity);
+                first = Arrays.copyOf(first, capacity);
+                count = Arrays.copyOf(count, capacity);
+            }
+        }
+
+        private void updateRanges() {
+            for (int i = 0; i < size; i++) {
+                updateRanges(i, x[i], y[i]);
+            }
+        }
+
+        private void updateRanges(int i, double x, double y) {
+            if (i == 0) {
+                minX = maxX = x;
+                minY = maxY = y;
+                return;
+            }
+            if (x > maxX) {
+                maxX = x;
+            }
+            if (x < minX) {
+                minX = x;
+            }
+            if (y > maxY) {
+                maxY = y;
+            }
+            if (y < minY) {
+                minY = y;
+            }
+        }
+
+        private int entry(int i) { // entry holding point i, when there are runs
+            int low = 0;
+            int high = entries - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (first[middle] <= i) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        public int size() {
+            return size;
         }
 
         public double x(int i) {
-            if (x1 != null) {
-                return x1[i];
+            if (step == null) {
+                return x[i];
             }
-            if (x2 != null) {
-                return x2.get(i);
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException(i);
             }
-            return 0;
+            int e = entry(i);
+            return step[e] == 0 ? x[e] : (x[e] + (i - first[e])) * step[e];
         }
 
         public double y(int i) {
-            if (y1 != null) {
-                return y1[i];
+            if (step == null) {
+                return y[i];
+            }
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException(i);
             }
-            if (y2 != null) {
-                return y2.get(i);
+            return y[entry(i)];
+        }
+
+        public double[] xRange(int from) { // {min, max} x of the points from that one on, without reading each run
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int e = from >= size ? entries : step == null ? from : entry(from); e < entries; e++) {
+                double start = step == null || step[e] == 0 ? x[e] : (x[e] + Math.max(0, from - first[e])) * step[e];
+                double end = step == null || step[e] == 0 ? x[e] : (x[e] + (count[e] - 1)) * step[e];
+                min = Math.min(min, start);
+                max = Math.max(max, end);
             }
-            return 0;
+            return new double[]{min, max};
+        }
+
+        public double minX() { // ranges are 0 when there are no points
+            return size > 0 ? minX : 0;
+        }
+
+        public double maxX() {
+            return size > 0 ? maxX : 0;
+        }
+
+        public double minY() {
+            return size > 0 ? minY : 0;
+        }
+
+        public double maxY() {
+            return size > 0 ? maxY : 0;
         }
 
     }
@@ -891,6 +1367,12 @@ public class Plot {
         private String nameWithAxes;
         private DataSeriesOptions opts = new DataSeriesOptions();
         private Data data;
+        private int[] lineXs; // prepared for drawing, in pixels
+        private int[] lineYs;
+        private Data markers;
+        private int[] markerXs;
+        private int[] markerYs;
+        private BufferedImage sprite;
 
         public DataSeries(String name, Data data, DataSeriesOptions opts) {
             if (opts != null) {
@@ -911,115 +1393,368 @@ public class Plot {
         }
 
         private Range xRange() {
-            Range range = new Range(0, 0);
-            if (data != null && data.size() > 0) {
-                range = new Range(data.x(0), data.x(0));
-                for (int i = 1; i < data.size(); i++) {
-                    if (data.x(i) > range.max) {
-                        range.setMax(data.x(i));
-                    }
-                    if (data.x(i) < range.min) {
-                        range.setMin(data.x(i));
-                    }
-                }
-            }
-            return range;
+            return data == null ? new Range(0, 0) : new Range(data.minX(), data.maxX());
         }
 
         private Range yRange() {
-            Range range = new Range(0, 0);
-            if (data != null && data.size() > 0) {
-                range = new Range(data.y(0), data.y(0));
-                for (int i = 1; i < data.size(); i++) {
-                    if (data.y(i) > range.max) {
-                        range.setMax(data.y(i));
-                    }
-                    if (data.y(i) < range.min) {
-                        range.setMin(data.y(i));
-                    }
+            return data == null ? new Range(0, 0) : new Range(data.minY(), data.maxY());
+        }
+
+        // computes what to draw in device coordinates, once: drawing then only reads it, also from many threads
+        private void prepare(Graphics2D g) {
+            lineXs = lineYs = markerXs = markerYs = null;
+            markers = null;
+            sprite = null;
+            if (data == null) {
+                return;
+            }
+
+            boolean thin = thin();
+            if (opts.line != Line.NONE) {
+                Data lines = thin ? lineLevelOfDetail() : data;
+                lineXs = columns(lines, true);
+                lineYs = columns(lines, false);
+            }
+            if (opts.marker != Marker.NONE) {
+                markers = thin ? markerLevelOfDetail() : data;
+                if (opts.marker != Marker.COLUMN && opts.marker != Marker.BAR) { // they depend on the axes
+                    markerXs = columns(markers, true);
+                    markerYs = columns(markers, false);
+                    sprite = markerSprite(g, opts.markerSize + MARKER_STROKE_MARGIN);
                 }
             }
-            return range;
+        }
+
+        private int pointsDrawn() { // as last prepared
+            return (lineXs == null ? 0 : lineXs.length) + (markers == null ? 0 : markers.size());
+        }
+
+        private boolean thin() {
+            return opts.levelOfDetail && data.size() > plotArea.plotRect.width;
+        }
+
+        private int[] columns(Data data, boolean isX) {
+            int[] values = new int[data.size()];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = isX ? toInt(x2x(data.x(j), opts.xAxis.opts.range, plotArea.xPlotRange))
+                        : toInt(y2y(data.y(j), opts.yAxis.opts.range, plotArea.yPlotRange));
+            }
+            return values;
         }
 
         private void draw(Graphics2D g) {
             g.setClip(plotArea.plotClipRect);
-            if (data != null) {
-                double x1 = 0, y1 = 0;
-                int size = data.size();
-                if (opts.line != Line.NONE) {
-                    for (int j = 0; j < size; j++) {
-                        double x2 = x2x(data.x(j), opts.xAxis.opts.range, plotArea.xPlotRange);
-                        double y2 = y2y(data.y(j), opts.yAxis.opts.range, plotArea.yPlotRange);
-                        int ix1 = toInt(x1), iy1 = toInt(y1), ix2 = toInt(x2), iy2 = toInt(y2);
-                        int iy3 = plotArea.plotRect.y + plotArea.plotRect.height;
-                        // special case for the case when only the first point present
-                        if (size == 1) {
-                            ix1 = ix2;
-                            iy1 = iy2;
-                        }
-                        if (j != 0 || size == 1) {
-                            fillArea(g, ix1, iy1, ix2, iy2, iy3);
-                            drawLine(g, ix1, iy1, ix2, iy2);
-                        }
-                        x1 = x2;
-                        y1 = y2;
+            if (lineXs != null) {
+                drawLines(g, lineXs, lineYs);
+            }
+            if (markers != null) {
+                drawMarkers(g);
+            }
+        }
+
+        // lines and areas are batched in paths of a few segments each: one call per path, while keeping paths short
+        // enough for the rasterizer not to slow down on crossings of far away segments
+        private void drawLines(Graphics2D g, int[] xs, int[] ys) {
+            int size = xs.length;
+            if (opts.areaColor != null) { // below the lines
+                int iy3 = plotArea.plotRect.y + plotArea.plotRect.height;
+                g.setColor(opts.areaColor);
+                Path2D.Float area = new Path2D.Float(Path2D.WIND_NON_ZERO, PATH_SEGMENTS * 5);
+                for (int j = 1; j < size; j++) {
+                    appendArea(area, xs[j - 1], ys[j - 1], xs[j], ys[j], iy3);
+                    if (j % PATH_SEGMENTS == 0 || j == size - 1) {
+                        g.fill(area);
+                        area.reset();
                     }
                 }
+            }
+
+            g.setColor(opts.seriesColor);
+            g.setStroke(lineStroke());
+            Path2D.Float line = new Path2D.Float(Path2D.WIND_NON_ZERO, PATH_SEGMENTS + 1);
+            if (size == 1) { // special case for the case when only the first point present
+                line.moveTo(xs[0], ys[0]);
+                line.lineTo(xs[0], ys[0]);
+                g.draw(line);
+            }
+            for (int j = 1; j < size; j++) {
+                if (line.getCurrentPoint() == null) {
+                    line.moveTo(xs[j - 1], ys[j - 1]);
+                }
+                line.lineTo(xs[j], ys[j]);
+                if (j % PATH_SEGMENTS == 0 || j == size - 1) {
+                    g.draw(line);
+                    line.reset();
+                }
+            }
+        }
 
+        private void appendArea(Path2D area, double ix1, double iy1, double ix2, double iy2, double iy3) {
+            // every piece is wound the same way, so that the overlapping ones are filled once
+            double twiceArea = (ix2 - ix1) * ((iy3 - iy1) + (iy3 - iy2));
+            if (twiceArea == 0) {
+                return;
+            }
+            if (twiceArea > 0) {
+                area.moveTo(ix1, iy1);
+                area.lineTo(ix2, iy2);
+                area.lineTo(ix2, iy3);
+                area.lineTo(ix1, iy3);
+            } else {
+                area.moveTo(ix1, iy3);
+                area.lineTo(ix2, iy3);
+                area.lineTo(ix2, iy2);
+                area.lineTo(ix1, iy1);
+            }
+            area.closePath();
+        }
+
+        private void drawMarkers(Graphics2D g) {
+            if (sprite == null) { // columns and bars, drawn one by one
                 int halfMarkerSize = opts.markerSize / 2;
                 int halfDiagMarkerSize = getDiagMarkerSize() / 2;
-                g.setStroke(new BasicStroke(2));
-                if (opts.marker != Marker.NONE) {
-                    for (int j = 0; j < size; j++) {
-                        double x2 = x2x(data.x(j), opts.xAxis.opts.range, plotArea.xPlotRange);
-                        double y2 = y2y(data.y(j), opts.yAxis.opts.range, plotArea.yPlotRange);
-                        drawMarker(g, halfMarkerSize, halfDiagMarkerSize, x2, y2,
-                                plotArea.plotRect.x, plotArea.plotRect.y + plotArea.plotRect.height);
+                g.setStroke(MARKER_STROKE);
+                for (int j = 0; j < markers.size(); j++) {
+                    double x2 = x2x(markers.x(j), opts.xAxis.opts.range, plotArea.xPlotRange);
+                    double y2 = y2y(markers.y(j), opts.yAxis.opts.range, plotArea.yPlotRange);
+                    drawMarker(g, halfMarkerSize, halfDiagMarkerSize, x2, y2,
+                            plotArea.plotRect.x, plotArea.plotRect.y + plotArea.plotRect.height);
+                }
+                return;
+            }
+
+            int offset = opts.markerSize + MARKER_STROKE_MARGIN; // from the corner of the sprite to its center
+            for (int j = 0; j < markerXs.length; j++) {
+                g.drawImage(sprite, markerXs[j] - offset, markerYs[j] - offset, null);
+            }
+        }
+
+        private BufferedImage markerSprite(Graphics2D g, int offset) { // the marker drawn once, then copied
+            BufferedImage sprite = new BufferedImage(offset * 2 + 1, offset * 2 + 1, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D sg = sprite.createGraphics();
+            try {
+                sg.setRenderingHints(g.getRenderingHints());
+                sg.setStroke(MARKER_STROKE);
+                drawMarker(sg, opts.markerSize / 2, getDiagMarkerSize() / 2, offset, offset, 0, 0);
+                return sprite;
+            } finally {
+                sg.dispose();
+            }
+        }
+
+        // the same points as draw(g) in svg, without rounding them to pixels: lines and areas in a path each, markers
+        // as uses of the one defined with the given id
+        private void svg(SvgWriter svg, String markerId) throws IOException {
+            if (data == null) {
+                return;
+            }
+
+            Range xRange = opts.xAxis.opts.range, yRange = opts.yAxis.opts.range;
+            Range xPlotRange = plotArea.xPlotRange, yPlotRange = plotArea.yPlotRange;
+            boolean thin = thin();
+            if (opts.line != Line.NONE && data.size() > 0) {
+                Data lines = thin ? lineLevelOfDetail() : data;
+                if (opts.areaColor != null) {
+                    int iy3 = plotArea.plotRect.y + plotArea.plotRect.height;
+                    Path2D.Double area = new Path2D.Double(Path2D.WIND_NON_ZERO, PATH_SEGMENTS * 5);
+                    svg.path(opts.areaColor, null, null);
+                    for (int j = 1; j < lines.size(); j++) {
+                        appendArea(area, x2x(lines.x(j - 1), xRange, xPlotRange),
+                                y2y(lines.y(j - 1), yRange, yPlotRange), x2x(lines.x(j), xRange, xPlotRange),
+                                y2y(lines.y(j), yRange, yPlotRange), iy3);
+                        if (j % PATH_SEGMENTS == 0 || j == lines.size() - 1) {
+                            svg.append(area);
+                            area.reset();
+                        }
+                    }
+                    svg.endPath();
+                }
+
+                svg.path(null, opts.seriesColor, lineStroke());
+                svg.moveTo(x2x(lines.x(0), xRange, xPlotRange), y2y(lines.y(0), yRange, yPlotRange));
+                if (lines.size() == 1) { // a dot, as drawn by draw(g)
+                    svg.lineTo(x2x(lines.x(0), xRange, xPlotRange), y2y(lines.y(0), yRange, yPlotRange));
+                }
+                for (int j = 1; j < lines.size(); j++) {
+                    svg.lineTo(x2x(lines.x(j), xRange, xPlotRange), y2y(lines.y(j), yRange, yPlotRange));
+                }
+                svg.endPath();
+            }
+
+            if (opts.marker != Marker.NONE) {
+                Data points = thin ? markerLevelOfDetail() : data;
+                for (int j = 0; j < points.size(); j++) {
+                    double x2 = x2x(points.x(j), xRange, xPlotRange);
+                    double y2 = y2y(points.y(j), yRange, yPlotRange);
+                    if (stamped()) {
+                        svg.use(markerId, x2, y2);
+                    } else {
+                        svgMarker(svg, x2, y2, plotArea.plotRect.x, plotArea.plotRect.y + plotArea.plotRect.height);
                     }
                 }
             }
         }
 
+        private boolean stamped() { // markers that do not depend on the axes, drawn once and copied
+            return opts.marker != Marker.NONE && opts.marker != Marker.COLUMN && opts.marker != Marker.BAR;
+        }
+
+        private void svgLegendEntry(SvgWriter svg, int x, int y) throws IOException { // as drawLegendEntry(g)
+            int size = Plot.this.opts.legendSignSize;
+            if (opts.areaColor != null) {
+                Path2D.Double area = new Path2D.Double();
+                appendArea(area, x, y, x + size, y, y + size / 2);
+                svg.path(opts.areaColor, null, null);
+                svg.append(area);
+                svg.endPath();
+            }
+            if (opts.line != Line.NONE) {
+                svg.path(null, opts.seriesColor, lineStroke());
+                svg.moveTo(x, y);
+                svg.lineTo(x + size, y);
+                svg.endPath();
+            }
+            svgMarker(svg, x + size / 2, y, x, y + size / 2);
+            svg.text(name, Plot.this.opts.labelFont, Plot.this.opts.foregroundColor,
+                    x + size + Plot.this.opts.labelPadding, y, HorizAlign.LEFT, VertAlign.CENTER);
+        }
+
+        private void svgMarker(SvgWriter svg, double x2, double y2, double x3, double y3) throws IOException {
+            int markerSize = opts.markerSize, halfMarkerSize = markerSize / 2;
+            int halfDiagMarkerSize = getDiagMarkerSize() / 2;
+            Path2D.Double lines = new Path2D.Double();
+            switch (opts.marker) {
+                case CIRCLE ->
+                    svg.shape(new Ellipse2D.Double(x2 - halfMarkerSize, y2 - halfMarkerSize, markerSize, markerSize),
+                            opts.markerColor, opts.seriesColor);
+                case SQUARE ->
+                    svg.shape(new Rectangle2D.Double(x2 - halfMarkerSize, y2 - halfMarkerSize, markerSize,
+                            markerSize), opts.markerColor, opts.seriesColor);
+                case DIAMOND -> {
+                    lines.moveTo(x2, y2 - halfDiagMarkerSize);
+                    lines.lineTo(x2 + halfDiagMarkerSize, y2);
+                    lines.lineTo(x2, y2 + halfDiagMarkerSize);
+                    lines.lineTo(x2 - halfDiagMarkerSize, y2);
+                    lines.closePath();
+                    svg.shape(lines, opts.markerColor, opts.seriesColor);
+                }
+                case COLUMN ->
+                    svg.shape(new Rectangle2D.Double(x2, y2, markerSize, y3 - y2), opts.markerColor,
+                            opts.seriesColor);
+                case BAR ->
+                    svg.shape(new Rectangle2D.Double(x3, y2, x2 - x3, markerSize), opts.markerColor,
+                            opts.seriesColor);
+                case X -> {
+                    lines.moveTo(x2 - halfMarkerSize, y2 - halfMarkerSize);
+                    lines.lineTo(x2 + halfMarkerSize, y2 + halfMarkerSize);
+                    lines.moveTo(x2 - halfMarkerSize, y2 + halfMarkerSize);
+                    lines.lineTo(x2 + halfMarkerSize, y2 - halfMarkerSize);
+                    svg.shape(lines, null, opts.markerColor);
+                }
+                case DOUBLE_LINE -> {
+                    lines.moveTo(x2 - halfMarkerSize, y2 + halfMarkerSize + 3);
+                    lines.lineTo(x2 + 0.25 * halfMarkerSize, y2 - halfMarkerSize + 3);
+                    lines.moveTo(x2 - halfMarkerSize, y2 + halfMarkerSize - 3);
+                    lines.lineTo(x2 + 0.25 * halfMarkerSize, y2 - halfMarkerSize - 3);
+                    svg.shape(lines, null, opts.markerColor);
+                }
+                default -> {
+                }
+            }
+        }
+
+        // keeps the first, lowest, highest and last point of each run of points falling in the same pixel column:
+        // lines through them cover the same pixels, so at most four points per column are drawn
+        private Data lineLevelOfDetail() {
+            Data lod = data();
+            int size = data.size();
+            int i = 0;
+            while (i < size) {
+                int column = column(i);
+                int first = i, min = i, max = i;
+                for (i++; i < size && column(i) == column; i++) {
+                    if (data.y(i) < data.y(min)) {
+                        min = i;
+                    }
+                    if (data.y(i) > data.y(max)) {
+                        max = i;
+                    }
+                }
+                int last = i - 1;
+
+                lod.xy(data.x(first), data.y(first)); // in the original order, without repeating points
+                int low = Math.min(min, max), high = Math.max(min, max);
+                if (low != first) {
+                    lod.xy(data.x(low), data.y(low));
+                }
+                if (high != low && high != first) {
+                    lod.xy(data.x(high), data.y(high));
+                }
+                if (last != high && last != first) {
+                    lod.xy(data.x(last), data.y(last));
+                }
+            }
+            return lod;
+        }
+
+        // keeps one point per pixel, as markers drawn on the same pixel look the same
+        private Data markerLevelOfDetail() {
+            Data lod = data();
+            int width = Plot.this.opts.width, height = Plot.this.opts.height;
+            BitSet drawn = new BitSet(width * height);
+            for (int i = 0; i < data.size(); i++) {
+                int x = column(i);
+                int y = toInt(y2y(data.y(i), opts.yAxis.opts.range, plotArea.yPlotRange));
+                if (x < 0 || x >= width || y < 0 || y >= height) { // markers outside are all kept
+                    lod.xy(data.x(i), data.y(i));
+                } else if (!drawn.get(y * width + x)) {
+                    drawn.set(y * width + x);
+                    lod.xy(data.x(i), data.y(i));
+                }
+            }
+            return lod;
+        }
+
+        private int column(int i) {
+            return toInt(x2x(data.x(i), opts.xAxis.opts.range, plotArea.xPlotRange));
+        }
+
         private int getDiagMarkerSize() {
             return (int) Math.round(Math.sqrt(2 * opts.markerSize * opts.markerSize));
         }
 
-        private void fillArea(Graphics2D g, int ix1, int iy1, int ix2, int iy2, int iy3) {
+        private void fillArea(Graphics2D g, int ix1, int iy1, int ix2, int iy2, int iy3) { // used by the legend
             if (opts.areaColor != null) {
+                Path2D.Float area = new Path2D.Float();
+                appendArea(area, ix1, iy1, ix2, iy2, iy3);
                 g.setColor(opts.areaColor);
-                g.fill(new Polygon(
-                        new int[]{ix1, ix2, ix2, ix1},
-                        new int[]{iy1, iy2, iy3, iy3},
-                        4));
+                g.fill(area);
                 g.setColor(opts.seriesColor);
             }
         }
 
-        private void drawLine(Graphics2D g, int ix1, int iy1, int ix2, int iy2) {
+        private void drawLine(Graphics2D g, int ix1, int iy1, int ix2, int iy2) { // used by the legend
             if (opts.line != Line.NONE) {
                 g.setColor(opts.seriesColor);
-                setStroke(g);
+                g.setStroke(lineStroke());
                 g.drawLine(ix1, iy1, ix2, iy2);
             }
         }
 
-        private void setStroke(Graphics2D g) {
-            switch (opts.line) {
-                case SOLID ->
-                    g.setStroke(new BasicStroke(opts.lineWidth));
+        private Stroke lineStroke() {
+            return switch (opts.line) {
                 case DASHED ->
-                    g.setStroke(new BasicStroke(opts.lineWidth, BasicStroke.CAP_ROUND,
-                            BasicStroke.JOIN_ROUND, 10.0f, opts.lineDash, 0.0f));
-                default -> {
-                }
-            }
+                    new BasicStroke(opts.lineWidth, BasicStroke.CAP_ROUND,
+                            BasicStroke.JOIN_ROUND, 10.0f, opts.lineDash, 0.0f);
+                default ->
+                    new BasicStroke(opts.lineWidth);
+            };
         }
 
-        private void drawMarker(Graphics2D g, int x2, int y2, int x3, int y3) {
+        private void drawMarker(Graphics2D g, int x2, int y2, int x3, int y3) { // used by the legend
             int halfMarkerSize = opts.markerSize / 2;
             int halfDiagMarkerSize = getDiagMarkerSize() / 2;
-            g.setStroke(new BasicStroke(2));
+            g.setStroke(MARKER_STROKE);
             drawMarker(g, halfMarkerSize, halfDiagMarkerSize, x2, y2, x3, y3);
         }
 
@@ -1088,9 +1823,259 @@ public class Plot {
 
     }
 
+    // writes svg to a stream as it goes, with the attributes graphics would draw with: text is measured on the given
+    // graphics, so that labels are placed as in the image
+    private static class SvgWriter {
+
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final Writer out;
+        private final Graphics2D g;
+
+        private SvgWriter(OutputStream out, Graphics2D g) {
+            this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            this.g = g;
+        }
+
+        private void start(int width, int height) throws IOException {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\"");
+            attr("width", width);
+            attr("height", height);
+            out.write(" viewBox=\"0 0 " + width + " " + height + "\">\n");
+        }
+
+        private void finish() throws IOException {
+            out.write("</svg>\n");
+            out.flush();
+        }
+
+        private void raw(String s) throws IOException {
+            out.write(s);
+        }
+
+        private void rect(double x, double y, double width, double height, Color fill, Color stroke, Stroke s)
+                throws IOException {
+            out.write("<rect");
+            attr("x", x);
+            attr("y", y);
+            attr("width", width);
+            attr("height", height);
+            if (fill != null || stroke != null) {
+                paint(fill, stroke, s);
+            }
+            out.write("/>\n");
+        }
+
+        private void text(String s, Font font, Color color, int x, int y, HorizAlign hAlign, VertAlign vAlign)
+                throws IOException {
+            g.setFont(font);
+            Point origin = labelOrigin(g, s, x, y, hAlign, vAlign);
+            out.write("<text");
+            attr("x", origin.x);
+            attr("y", origin.y);
+            out.write(" font-family=\"");
+            escape(font.getName());
+            out.write(", sans-serif\"");
+            attr("font-size", font.getSize2D());
+            if (font.isBold()) {
+                out.write(" font-weight=\"bold\"");
+            }
+            if (font.isItalic()) {
+                out.write(" font-style=\"italic\"");
+            }
+            paint(color, null, null);
+            out.write('>');
+            escape(s);
+            out.write("</text>\n");
+        }
+
+        private void use(String id, double x, double y) throws IOException {
+            out.write("<use xlink:href=\"");
+            out.write(id);
+            out.write('"');
+            attr("x", x);
+            attr("y", y);
+            out.write("/>\n");
+        }
+
+        private void shape(Shape shape, Color fill, Color stroke) throws IOException { // as markers are drawn
+            path(fill, stroke, MARKER_STROKE);
+            append(shape);
+            endPath();
+        }
+
+        // a path is started, then its data is appended a piece at a time, and ended
+        private void path(Color fill, Color stroke, Stroke s) throws IOException {
+            out.write("<path");
+            paint(fill, stroke, s);
+            out.write(" d=\"");
+        }
+
+        private void moveTo(double x, double y) throws IOException {
+            out.write('M');
+            point(x, y);
+        }
+
+        private void lineTo(double x, double y) throws IOException {
+            out.write('L');
+            point(x, y);
+        }
+
+        private void append(Shape shape) throws IOException {
+            double[] coords = new double[6];
+            for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next()) {
+                switch (it.currentSegment(coords)) {
+                    case PathIterator.SEG_MOVETO ->
+                        moveTo(coords[0], coords[1]);
+                    case PathIterator.SEG_LINETO ->
+                        lineTo(coords[0], coords[1]);
+                    case PathIterator.SEG_QUADTO -> {
+                        out.write('Q');
+                        point(coords[0], coords[1]);
+                        out.write(' ');
+                        point(coords[2], coords[3]);
+                    }
+                    case PathIterator.SEG_CUBICTO -> {
+                        out.write('C');
+                        point(coords[0], coords[1]);
+                        out.write(' ');
+                        point(coords[2], coords[3]);
+                        out.write(' ');
+                        point(coords[4], coords[5]);
+                    }
+                    default ->
+                        out.write('Z');
+                }
+            }
+        }
+
+        private void endPath() throws IOException {
+            out.write("\"/>\n");
+        }
+
+        private void paint(Color fill, Color stroke, Stroke s) throws IOException {
+            if (fill == null) {
+                out.write(" fill=\"none\"");
+            } else {
+                color("fill", fill);
+            }
+            if (stroke == null) {
+                return;
+            }
+            color("stroke", stroke);
+            if (!(s instanceof BasicStroke)) {
+                return;
+            }
+
+            BasicStroke bs = (BasicStroke) s;
+            attr("stroke-width", bs.getLineWidth());
+            out.write(switch (bs.getEndCap()) {
+                case BasicStroke.CAP_BUTT ->
+                    " stroke-linecap=\"butt\"";
+                case BasicStroke.CAP_ROUND ->
+                    " stroke-linecap=\"round\"";
+                default ->
+                    " stroke-linecap=\"square\"";
+            });
+            out.write(switch (bs.getLineJoin()) {
+                case BasicStroke.JOIN_ROUND ->
+                    " stroke-linejoin=\"round\"";
+                case BasicStroke.JOIN_BEVEL ->
+                    " stroke-linejoin=\"bevel\"";
+                default ->
+                    " stroke-linejoin=\"miter\"";
+            });
+            if (bs.getLineJoin() == BasicStroke.JOIN_MITER) {
+                attr("stroke-miterlimit", bs.getMiterLimit());
+            }
+            float[] dash = bs.getDashArray();
+            if (dash != null) {
+                out.write(" stroke-dasharray=\"");
+                for (int i = 0; i < dash.length; i++) {
+                    if (i > 0) {
+                        out.write(' ');
+                    }
+                    number(dash[i]);
+                }
+                out.write('"');
+                if (bs.getDashPhase() != 0) {
+                    attr("stroke-dashoffset", bs.getDashPhase());
+                }
+            }
+        }
+
+        private void color(String name, Color color) throws IOException {
+            out.write(' ');
+            out.write(name);
+            out.write("=\"#");
+            String hex = Integer.toHexString(color.getRGB() & 0xffffff | 0x1000000); // with leading zeros
+            out.write(hex, 1, 6);
+            out.write('"');
+            if (color.getAlpha() < 255) {
+                attr(name + "-opacity", color.getAlpha() / 255.0);
+            }
+        }
+
+        private void attr(String name, double value) throws IOException {
+            out.write(' ');
+            out.write(name);
+            out.write("=\"");
+            number(value);
+            out.write('"');
+        }
+
+        private void point(double x, double y) throws IOException {
+            number(x);
+            out.write(',');
+            number(y);
+        }
+
+        // at most two decimals, as much as a fraction of pixel needs, and faster and shorter than Double.toString
+        private void number(double d) throws IOException {
+            long hundredths = Math.round(d * 100);
+            if (hundredths < 0) {
+                out.write('-');
+                hundredths = -hundredths;
+            }
+            out.write(Long.toString(hundredths / 100));
+            int decimals = (int) (hundredths % 100);
+            if (decimals != 0) {
+                out.write('.');
+                out.write('0' + decimals / 10);
+                if (decimals % 10 != 0) {
+                    out.write('0' + decimals % 10);
+                }
+            }
+        }
+
+        private void escape(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '&' ->
+                        out.write("&amp;");
+                    case '<' ->
+                        out.write("&lt;");
+                    case '>' ->
+                        out.write("&gt;");
+                    case '"' ->
+                        out.write("&quot;");
+                    default ->
+                        out.write(c);
+                }
+            }
+        }
+
+    }
+
     private static void drawLabel(Graphics2D g, String s, int x, int y, HorizAlign hAlign, VertAlign vAlign) {
-        FontMetrics fm = g.getFontMetrics();
-        Rectangle2D rect = fm.getStringBounds(s, g);
+        Point origin = labelOrigin(g, s, x, y, hAlign, vAlign);
+        g.drawString(s, origin.x, origin.y);
+    }
+
+    private static Point labelOrigin(Graphics2D g, String s, int x, int y, HorizAlign hAlign, VertAlign vAlign) {
+        Rectangle2D rect = textBounds(g, s);
 
         // by default align by left
         if (hAlign == HorizAlign.RIGHT) {
@@ -1106,7 +2091,26 @@ public class Plot {
             y += rect.getHeight() / 2;
         }
 
-        g.drawString(s, x, y);
+        return new Point(x, y);
+    }
+
+    // bounds of a string in the font of the graphics, as FontMetrics measures them, kept for the next time the same
+    // string is drawn (labels are drawn again at every frame of a live plot): shared, so not to be changed
+    private static Rectangle2D textBounds(Graphics2D g, String s) {
+        Font font = g.getFont();
+        FontRenderContext frc = g.getFontRenderContext();
+        Map<String, Rectangle2D> bounds = TEXT_BOUNDS.computeIfAbsent(List.of(font, frc),
+                key -> new ConcurrentHashMap<>());
+
+        Rectangle2D rect = bounds.get(s);
+        if (rect == null) {
+            if (bounds.size() >= MAX_TEXT_BOUNDS) {
+                bounds.clear();
+            }
+            rect = g.getFontMetrics().getStringBounds(s, g);
+            bounds.put(s, rect);
+        }
+        return rect;
     }
 
     public static String formatDouble(double d, AxisFormat format) {
@@ -1124,7 +2128,7 @@ public class Plot {
             case NUMBER_KGM ->
                 formatDoubleAsNumber(d, true);
             case NUMBER_DOUBLE ->
-                new DecimalFormat("##.#").format(d);
+                NUMBER_FORMAT.get().format(d);
             case NUMBER_INT ->
                 Integer.toString((int) d);
             default ->
@@ -1151,7 +2155,7 @@ public class Plot {
             }
             return String.format("%1$,.2f%2$c", r, suffix[i]);
         } else {
-            return new DecimalFormat("##.#").format(d);
+            return NUMBER_FORMAT.get().format(d);
         }
     }
 
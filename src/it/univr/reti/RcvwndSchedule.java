@@ -0,0 +1,85 @@
+package it.univr.reti;
+
+class RcvwndSchedule {
+
+    private final int[] times; // quantum in which rcvwnd is told, sorted
+    private final int[] values; // in bytes, rcvwnd told
+    private final int size; // changes (the last one told wins if more fall in the same quantum)
+
+    private int cursor = -1; // last change told at the last time looked up
+    private int lastTime = 0; // last time looked up
+
+    public RcvwndSchedule(double[][] timesAndValues, double rtt, int mssBytes, ScheduleViolations violations) {
+        // checked and compiled in one pass: times must be increasing, so quanta come already sorted
+        times = new int[timesAndValues.length];
+        values = new int[timesAndValues.length];
+        int kept = 0;
+        double lastTimestamp = Double.NEGATIVE_INFINITY; // of the last valid pair
+
+        for (int i = 0; i < timesAndValues.length; i++) {
+            double[] pair = timesAndValues[i];
+            if (pair == null || pair.length != 2) {
+                violations.add("rcvwnds", i, "is not a {timestamp, value} pair");
+                continue;
+            }
+            if (!(pair[0] >= 0) || !(pair[1] > 0) || Double.isInfinite(pair[0])) {
+                violations.add("rcvwnds", i, "has invalid values");
+                continue;
+            }
+            if (pair[1] < mssBytes) { // a rcvwnd smaller than one segment would stall the transmission
+                violations.add("rcvwnds", i, "is smaller than mss");
+            }
+            if (i == 0 && pair[0] >= rtt) { // no rcvwnd in the first round would stall it too
+                violations.add("rcvwnds", i, "is after the start (a rcvwnd is needed at time 0)");
+            }
+            if (pair[0] <= lastTimestamp) {
+                violations.add("rcvwnds", i, "is not after the previous one");
+            }
+            lastTimestamp = Math.max(lastTimestamp, pair[0]);
+            if (violations.count() > 0) {
+                continue; // thrown by the caller, no need to compile the rest
+            }
+
+            int time = (int) (pair[0] / rtt); // scaling with rtt
+            int value = (int) pair[1];
+            if (kept > 0 && times[kept - 1] == time) {
+                values[kept - 1] = value;
+            } else {
+                times[kept] = time;
+                values[kept] = value;
+                kept++;
+            }
+        }
+
+        size = kept;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int time(int i) {
+        return times[i];
+    }
+
+    public int maxValue() { // in bytes, largest rcvwnd told
+        int max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    public int valueAt(int time) { // last rcvwnd told up to time, 0 if none was
+        if (time < lastTime) { // looking backwards, start over
+            cursor = -1;
+        }
+        lastTime = time;
+
+        while (cursor + 1 < size && times[cursor + 1] <= time) {
+            cursor++;
+        }
+
+        return cursor < 0 ? 0 : values[cursor];
+    }
+}
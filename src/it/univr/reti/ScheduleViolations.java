@@ -0,0 +1,34 @@
+package it.univr.reti;
+
+/**
+ * Problems found in the schedules of a simulation, each one with the index
+ * of the pair it is about, so that all of them can be told at once instead
+ * of one per attempt. Only the first few are kept in the message, since
+ * schedules can be long.
+ */
+final class ScheduleViolations {
+
+    private static final int MAX_REPORTED = 20;
+
+    private final StringBuilder reported = new StringBuilder();
+    private int count = 0;
+
+    void add(String schedule, int index, String problem) {
+        if (count++ < MAX_REPORTED) {
+            reported.append(count > 1 ? "; " : "").append(schedule).append('[').append(index).append("] ")
+                    .append(problem);
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    void throwIfAny() throws IllegalArgumentException {
+        if (count > 0) {
+            throw new IllegalArgumentException("Invalid schedules provided (" + count
+                    + (count == 1 ? " violation): " : " violations): ") + reported
+                    + (count > MAX_REPORTED ? "; ... " + (count - MAX_REPORTED) + " more" : ""));
+        }
+    }
+}
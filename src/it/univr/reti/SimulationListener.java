@@ -0,0 +1,114 @@
+package it.univr.reti;
+
+/**
+ * Receives what happens during a simulation. Times are in sec, windows and
+ * data in segments. Every callback does nothing by default, so implementations
+ * only override what they need.
+ */
+public interface SimulationListener {
+
+    SimulationListener NONE = new SimulationListener() { // used by batch runs
+    };
+
+    static SimulationListener all(SimulationListener... listeners) { // notifies each listener, in order
+        return new SimulationListener() {
+            @Override
+            public void onStart() {
+                for (SimulationListener listener : listeners) {
+                    listener.onStart();
+                }
+            }
+
+            @Override
+            public void onNetworkDown(int index, double start, double finish) {
+                for (SimulationListener listener : listeners) {
+                    listener.onNetworkDown(index, start, finish);
+                }
+            }
+
+            @Override
+            public void onRound(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd) {
+                for (SimulationListener listener : listeners) {
+                    listener.onRound(time, remaining, sent, cwnd, ssthresh, rcvwnd);
+                }
+            }
+
+            @Override
+            public void onRcvwndChange(double time, int previousRcvwnd, int rcvwnd) {
+                for (SimulationListener listener : listeners) {
+                    listener.onRcvwndChange(time, previousRcvwnd, rcvwnd);
+                }
+            }
+
+            @Override
+            public void onSkippedRounds(int quantum, int rounds, double rtt, double startCwnd, double cwnd,
+                    long remaining, int ssthresh, int rcvwnd) {
+                for (SimulationListener listener : listeners) {
+                    listener.onSkippedRounds(quantum, rounds, rtt, startCwnd, cwnd, remaining, ssthresh, rcvwnd);
+                }
+            }
+
+            @Override
+            public void onSegmentLoss(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd,
+                    double rtoExpiry, int rtoScaleFactor) {
+                for (SimulationListener listener : listeners) {
+                    listener.onSegmentLoss(time, remaining, sent, cwnd, ssthresh, rcvwnd, rtoExpiry, rtoScaleFactor);
+                }
+            }
+
+            @Override
+            public void onRtoBackoff(double time, int ssthresh, int rcvwnd, int rtoScaleFactor) {
+                for (SimulationListener listener : listeners) {
+                    listener.onRtoBackoff(time, ssthresh, rcvwnd, rtoScaleFactor);
+                }
+            }
+
+            @Override
+            public void onTimeout(int quantum, double time, int ssthresh) {
+                for (SimulationListener listener : listeners) {
+                    listener.onTimeout(quantum, time, ssthresh);
+                }
+            }
+
+            @Override
+            public void onEnd(double time, double cwnd, int ssthresh, int rcvwnd, boolean timedOut) {
+                for (SimulationListener listener : listeners) {
+                    listener.onEnd(time, cwnd, ssthresh, rcvwnd, timedOut);
+                }
+            }
+        };
+    }
+
+    default void onStart() { // before the first round
+    }
+
+    default void onNetworkDown(int index, double start, double finish) { // once per network down, after onStart
+    }
+
+    default void onRound(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd) {
+        // round without losses: remaining is the data left after sending, the others are the values used to send
+    }
+
+    default void onRcvwndChange(double time, int previousRcvwnd, int rcvwnd) { // time is when the new one applies
+    }
+
+    default void onSkippedRounds(int quantum, int rounds, double rtt, double startCwnd, double cwnd, long remaining,
+            int ssthresh, int rcvwnd) {
+        // rounds fast-forwarded from the given quantum on; cwnd and remaining are the ones after them
+    }
+
+    default void onSegmentLoss(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd,
+            double rtoExpiry, int rtoScaleFactor) {
+        // round with losses: values are the ones used to send, rto scale factor the one of the wait
+    }
+
+    default void onRtoBackoff(double time, int ssthresh, int rcvwnd, int rtoScaleFactor) {
+        // rto expired (time is the retransmission one) and doubled for the next time
+    }
+
+    default void onTimeout(int quantum, double time, int ssthresh) { // maximum rto reached, connection closed
+    }
+
+    default void onEnd(double time, double cwnd, int ssthresh, int rcvwnd, boolean timedOut) {
+    }
+}
@@ -0,0 +1,226 @@
+package it.univr.reti;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the scenarios of a file, one {@link TCPScenario} per line (as JSON
+ * or CSV), and writes a result per line in the same order (as JSON or CSV).
+ * Scenarios are simulated on many threads while the file is read, but only
+ * a few per thread are in flight at any time, so memory stays the same
+ * however long the file is. Invalid scenarios, and the ones taking longer
+ * than the time limit, get a result with the error, and the rest of the file
+ * goes on.
+ */
+public class TCPBatch {
+
+    public enum Format {
+        JSON, CSV
+    }
+
+    private static final int PENDING_PER_THREAD = 16; // scenarios in flight for each thread, to even out slow ones
+    private static final String CSV_HEADER = "line,id,completionTime,rounds,losses,timedOut,error";
+    private static final long DEFAULT_TIME_LIMIT_MILLIS = 60_000; // per scenario
+
+    private Format input = Format.JSON;
+    private Format output = Format.CSV;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long timeLimitMillis = DEFAULT_TIME_LIMIT_MILLIS;
+
+    public static TCPBatch batch() {
+        return new TCPBatch();
+    }
+
+    private TCPBatch() {
+    }
+
+    public TCPBatch input(Format format) {
+        this.input = format;
+        return this;
+    }
+
+    public TCPBatch output(Format format) {
+        this.output = format;
+        return this;
+    }
+
+    public TCPBatch parallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid parallelism provided (must be > 0)");
+        }
+
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public TCPBatch timeLimit(long millis) { // per scenario, counted once it is the oldest one still running
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Invalid time limit provided (must be > 0)");
+        }
+
+        this.timeLimitMillis = millis;
+        return this;
+    }
+
+    public static Format format(Path file) { // csv if its name ends with .csv, json otherwise (.jsonl, .json, ...)
+        return file.getFileName().toString().toLowerCase().endsWith(".csv") ? Format.CSV : Format.JSON;
+    }
+
+    public long run(Path in, Path out) throws IOException { // formats from the names of the files
+        input(format(in));
+        output(format(out));
+        try (BufferedReader reader = Files.newBufferedReader(in, StandardCharsets.UTF_8);
+                BufferedWriter writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            return run(reader, writer);
+        }
+    }
+
+    public long run(BufferedReader in, Writer out) throws IOException { // returns the number of scenarios
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "batch-simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Pending> pending = new ArrayDeque<>(); // in input order, at most a few per thread
+        int window = parallelism * PENDING_PER_THREAD;
+        long scenarios = 0;
+
+        try {
+            if (output == Format.CSV) {
+                out.write(CSV_HEADER);
+                out.write('\n');
+            }
+
+            String line;
+            long lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#") || input == Format.CSV && TCPScenario.isCsvHeader(line)) {
+                    continue;
+                }
+
+                String scenario = line;
+                long number = lineNumber;
+                pending.add(new Pending(number, executor.submit(() -> simulate(number, scenario))));
+                scenarios++;
+                if (pending.size() >= window) { // wait for the oldest one, the others keep running meanwhile
+                    out.write(take(pending));
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                out.write(take(pending));
+            }
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return scenarios;
+    }
+
+    private String simulate(long lineNumber, String line) { // on the threads of the batch, as a line of the output
+        String id = null;
+        TCPResult result = null;
+        String error = null;
+
+        try {
+            TCPScenario scenario = input == Format.CSV ? TCPScenario.fromCsv(line) : TCPScenario.fromJson(line);
+            id = scenario.getId();
+            result = scenario.simulator().fastForward(true).run();
+        } catch (IllegalArgumentException e) { // invalid scenario, the rest of the batch goes on
+            error = e.getMessage();
+        }
+
+        return output == Format.CSV ? csv(lineNumber, id, result, error) : json(lineNumber, id, result, error);
+    }
+
+    private static String csv(long lineNumber, String id, TCPResult result, String error) {
+        StringBuilder s = new StringBuilder().append(lineNumber).append(',');
+        if (id != null) {
+            s.append(id.replace(',', ' '));
+        }
+        if (result != null) {
+            s.append(',').append(result.getCompletionTime())
+                    .append(',').append(result.getRounds())
+                    .append(',').append(result.getLosses())
+                    .append(',').append(result.isTimedOut())
+                    .append(',');
+        } else {
+            s.append(",,,,,").append(error == null ? "" : error.replace(',', ';'));
+        }
+        return s.append('\n').toString();
+    }
+
+    private static String json(long lineNumber, String id, TCPResult result, String error) {
+        StringBuilder s = new StringBuilder().append("{\"line\":").append(lineNumber);
+        if (id != null) {
+            Json.quote(s.append(",\"id\":"), id);
+        }
+        if (result != null) {
+            s.append(",\"completionTime\":").append(result.getCompletionTime())
+                    .append(",\"rounds\":").append(result.getRounds())
+                    .append(",\"losses\":").append(result.getLosses())
+                    .append(",\"timedOut\":").append(result.isTimedOut());
+        } else {
+            Json.quote(s.append(",\"error\":"), String.valueOf(error));
+        }
+        return s.append("}\n").toString();
+    }
+
+    private String take(ArrayDeque<Pending> pending) throws IOException {
+        Pending oldest = pending.remove();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeLimitMillis);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return oldest.line.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true; // its line is still needed, so wait again
+                }
+            }
+        } catch (TimeoutException | CancellationException e) { // too long, stopped so that its thread is free again
+            oldest.line.cancel(true);
+            String error = "Simulation took longer than " + timeLimitMillis + " ms";
+            return output == Format.CSV ? csv(oldest.lineNumber, null, null, error)
+                    : json(oldest.lineNumber, null, null, error);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IOException("Simulation failed", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class Pending { // a scenario in flight
+
+        private final long lineNumber;
+        private final Future<String> line; // of the output
+
+        private Pending(long lineNumber, Future<String> line) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+        }
+    }
+}
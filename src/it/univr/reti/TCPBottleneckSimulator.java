@@ -0,0 +1,233 @@
+package it.univr.reti;
+
+import java.util.Arrays;
+
+/**
+ * Many TCP flows sharing one link. Every flow follows the same rules as
+ * {@link TCPSimulator} (slow start, congestion avoidance, rto doubling up to
+ * the timeout), all of them with the same rtt, and segments are lost either
+ * because the link is down or because it is overloaded. When the segments
+ * sent in a quantum exceed the link capacity, flows are served in turn
+ * (starting from a different one every quantum) and a flow whose window does
+ * not fit in what is left loses it, as if dropped by a full queue.
+ */
+public class TCPBottleneckSimulator {
+
+    private static final int INITIAL_FLOWS = 16; // initial size of the flow columns
+    private static final byte RUNNING = 0; // flow states
+    private static final byte COMPLETED = 1;
+    private static final byte TIMED_OUT = 2;
+
+    // LINK
+    private final double capacity; // in bytes per quantum
+    private final double rtt; // in sec, same for every flow
+    private final NetworkDownIndex networkDownIndex; // quanta in which segments are lost, for every flow
+
+    // FLOWS (one column per variable, one row per flow)
+    private int flows = 0;
+    private int[] mssBytes = new int[INITIAL_FLOWS];
+    private long[] segments = new long[INITIAL_FLOWS]; // in segments, data to be sent
+    private long[] data = new long[INITIAL_FLOWS]; // in segments, data left
+    private double[] cwnd = new double[INITIAL_FLOWS]; // in segments
+    private int[] ssthresh = new int[INITIAL_FLOWS]; // in segments
+    private int[] rcvwnd = new int[INITIAL_FLOWS]; // in segments
+    private int[] sent = new int[INITIAL_FLOWS]; // segments sent in the current round
+    private int[] rtoScaleFactor = new int[INITIAL_FLOWS];
+    private int[] start = new int[INITIAL_FLOWS]; // quantum of the first round
+    private int[] next = new int[INITIAL_FLOWS]; // quantum of the next round (or retransmission)
+    private int[] finish = new int[INITIAL_FLOWS]; // quantum in which the flow completed or timed out
+    private int[] rounds = new int[INITIAL_FLOWS];
+    private int[] losses = new int[INITIAL_FLOWS];
+    private byte[] state = new byte[INITIAL_FLOWS];
+
+    public TCPBottleneckSimulator(double capacityBytes, double[][] networkDowns, double rtt)
+            throws IllegalArgumentException { // capacity in bytes per sec, infinite for no bottleneck
+        if (capacityBytes <= 0 || rtt <= 0) {
+            throw new IllegalArgumentException("Invalid values provided");
+        }
+
+        this.capacity = capacityBytes * rtt;
+        this.rtt = rtt;
+        this.networkDownIndex = new NetworkDownIndex(networkDowns == null ? TCPSimulator.NO_NETWORK_DOWNS
+                : networkDowns, rtt);
+    }
+
+    public int addFlow(int mssBytes, long dataBytes, int ssthresh, int rcvwndBytes, double startTime)
+            throws IllegalArgumentException { // returns the index of the flow
+        if (mssBytes <= 0 || dataBytes <= 0 || !(startTime >= 0)) {
+            throw new IllegalArgumentException("Invalid values provided");
+        }
+        if (rcvwndBytes < mssBytes) { // a rcvwnd smaller than one segment would stall the transmission
+            throw new IllegalArgumentException("Invalid rcvwnd provided (must be >= mss)");
+        }
+        if (ssthresh != TCPSimulator.INITIAL_RCVWND && ssthresh != TCPSimulator.HALF_INITIAL_RCVWND) {
+            throw new IllegalArgumentException("Invalid value provided for SSTHRESH");
+        }
+        // quanta are int, as in TCPSimulator: the first round and the last one (at least) must come before the limit
+        if (!(startTime / rtt < TCPSimulator.MAX_QUANTA)) {
+            throw new IllegalArgumentException("Invalid start time provided (after " + TCPSimulator.MAX_QUANTA
+                    + " rounds)");
+        }
+        if ((int) (startTime / rtt) + dataBytes / mssBytes / (rcvwndBytes / mssBytes) >= TCPSimulator.MAX_QUANTA) {
+            throw new IllegalArgumentException("Invalid data provided (more than " + TCPSimulator.MAX_QUANTA
+                    + " rounds needed)");
+        }
+
+        if (flows == this.mssBytes.length) {
+            grow();
+        }
+
+        int i = flows++;
+        this.mssBytes[i] = mssBytes;
+        this.segments[i] = dataBytes / mssBytes;
+        this.data[i] = this.segments[i];
+        this.cwnd[i] = TCPSimulator.MIN_CWND;
+        this.rcvwnd[i] = rcvwndBytes / mssBytes;
+        this.ssthresh[i] = rcvwndBytes / ssthresh / mssBytes;
+        this.rtoScaleFactor[i] = TCPSimulator.MIN_RTO;
+        this.start[i] = (int) (startTime / rtt);
+        this.next[i] = this.start[i];
+        this.state[i] = RUNNING;
+        return i;
+    }
+
+    public void run() {
+        int[] active = new int[flows]; // running flows
+        int[] due = new int[flows]; // running flows transmitting in the current quantum
+        int activeCount = 0;
+        int time = Integer.MAX_VALUE;
+
+        for (int i = 0; i < flows; i++) {
+            if (state[i] == RUNNING) {
+                active[activeCount++] = i;
+                time = Math.min(time, next[i]);
+            }
+        }
+
+        while (activeCount > 0) {
+            if (time >= TCPSimulator.MAX_QUANTA) { // losses made some flow longer than checked when added
+                throw new IllegalArgumentException("Invalid flows provided (more than " + TCPSimulator.MAX_QUANTA
+                        + " rounds needed)");
+            }
+
+            int dueCount = 0;
+            for (int k = 0; k < activeCount; k++) {
+                int i = active[k];
+                if (next[i] == time) {
+                    sent[i] = (int) Math.min((int) cwnd[i], data[i]); // number of segments to be sent
+                    due[dueCount++] = i;
+                }
+            }
+
+            boolean networkDown = networkDownIndex.isNetworkDown(time);
+            double left = capacity;
+
+            for (int k = 0; k < dueCount; k++) {
+                int i = due[(k + time % dueCount) % dueCount]; // a different flow is served first every quantum
+                double bytes = (double) sent[i] * mssBytes[i];
+
+                if (networkDown || bytes > left) {
+                    lose(i, time);
+                } else {
+                    left -= bytes;
+                    transmit(i, time);
+                }
+            }
+
+            // drop the flows which are over and jump to the next quantum in which some flow transmits
+            int running = 0;
+            time = Integer.MAX_VALUE;
+            for (int k = 0; k < activeCount; k++) {
+                int i = active[k];
+                if (state[i] == RUNNING) {
+                    active[running++] = i;
+                    time = Math.min(time, next[i]);
+                }
+            }
+            activeCount = running;
+        }
+    }
+
+    private void transmit(int i, int time) { // same as a round without losses in TCPSimulator
+        rtoScaleFactor[i] = TCPSimulator.MIN_RTO;
+
+        if (data[i] == 0) { // acks of the last segments received
+            state[i] = COMPLETED;
+            finish[i] = time;
+            return;
+        }
+
+        data[i] -= sent[i];
+        rounds[i]++;
+        cwnd[i] = TCPSimulator.nextCwnd(cwnd[i], sent[i], ssthresh[i], rcvwnd[i]);
+        next[i] = time + 1;
+    }
+
+    private void lose(int i, int time) { // same as a round with losses in TCPSimulator
+        rounds[i]++;
+        losses[i]++;
+        ssthresh[i] = TCPSimulator.ssthreshAfterLoss(cwnd[i]);
+        cwnd[i] = TCPSimulator.MIN_CWND;
+        next[i] = time + TCPSimulator.DOUBLE_RTT * rtoScaleFactor[i]; // wait rto
+        rtoScaleFactor[i] *= 2;
+
+        if (rtoScaleFactor[i] == TCPSimulator.MAX_RTO) {
+            state[i] = TIMED_OUT;
+            finish[i] = next[i];
+        }
+    }
+
+    private void grow() {
+        int size = flows * 2;
+        mssBytes = Arrays.copyOf(mssBytes, size);
+        segments = Arrays.copyOf(segments, size);
+        data = Arrays.copyOf(data, size);
+        cwnd = Arrays.copyOf(cwnd, size);
+        ssthresh = Arrays.copyOf(ssthresh, size);
+        rcvwnd = Arrays.copyOf(rcvwnd, size);
+        sent = Arrays.copyOf(sent, size);
+        rtoScaleFactor = Arrays.copyOf(rtoScaleFactor, size);
+        start = Arrays.copyOf(start, size);
+        next = Arrays.copyOf(next, size);
+        finish = Arrays.copyOf(finish, size);
+        rounds = Arrays.copyOf(rounds, size);
+        losses = Arrays.copyOf(losses, size);
+        state = Arrays.copyOf(state, size);
+    }
+
+    public int getFlows() {
+        return flows;
+    }
+
+    public TCPResult getResult(int flow) {
+        return new TCPResult(getCompletionTime(flow), rounds[flow], losses[flow], isTimedOut(flow));
+    }
+
+    public double getCompletionTime(int flow) { // in sec, since the flow started
+        return (finish[flow] - start[flow]) * rtt;
+    }
+
+    public boolean isTimedOut(int flow) {
+        return state[flow] == TIMED_OUT;
+    }
+
+    public double getGoodput(int flow) { // in bytes per sec, 0 if the flow did not complete
+        return state[flow] == COMPLETED && finish[flow] > start[flow]
+                ? segments[flow] * mssBytes[flow] / getCompletionTime(flow) : 0;
+    }
+
+    public double getAggregateGoodput() { // in bytes per sec, delivered by completed flows over the whole run
+        long delivered = 0;
+        int first = Integer.MAX_VALUE, last = 0;
+
+        for (int i = 0; i < flows; i++) {
+            first = Math.min(first, start[i]);
+            last = Math.max(last, finish[i]);
+            if (state[i] == COMPLETED) {
+                delivered += segments[i] * mssBytes[i];
+            }
+        }
+
+        return last > first ? delivered / ((last - first) * rtt) : 0;
+    }
+}
@@ -0,0 +1,365 @@
+package it.univr.reti;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Results of scenarios already simulated: the {@link TCPTrace} of each one
+ * and its plots, as the bytes of their images. Scenarios are told apart by
+ * {@link TCPScenario#key()}, so the same exercise asked again is neither
+ * simulated nor drawn again. Entries are kept in memory up to a number of
+ * bytes, the least recently used ones being evicted first. With a directory,
+ * every entry is also written there and read back (memory-mapped) when it is
+ * not in memory, after an eviction or a restart. A scenario asked by many
+ * threads at once is simulated by one of them, the others wait for it.
+ */
+public class TCPCache {
+
+    private static final long DEFAULT_MAX_BYTES = 64L << 20;
+    private static final int ENTRY_OVERHEAD = 64; // map node, entry and key objects, roughly
+    private static final int MAGIC = 0x54435043; // TCPC, first int of the files of the directory
+    private static final String TRACE = "trace"; // kind of the entries of traces, the others are image formats
+    private static final String FAST_FORWARD = "-ff"; // added to kinds when fast forwarding
+
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private boolean fastForward = false;
+    private Path directory; // null if entries are kept in memory only
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // LRU first
+    private long bytes = 0; // of the entries in memory
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    // STATISTICS
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public static TCPCache cache() {
+        return new TCPCache();
+    }
+
+    private TCPCache() {
+    }
+
+    public TCPCache maxBytes(long maxBytes) { // of traces and images kept in memory
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid max bytes provided (must be >= 0)");
+        }
+
+        synchronized (entries) {
+            this.maxBytes = maxBytes;
+            evict();
+        }
+        return this;
+    }
+
+    public TCPCache fastForward(boolean enabled) { // traces recorded as by TCPSimulator.fastForward
+        this.fastForward = enabled;
+        return this;
+    }
+
+    public TCPCache directory(Path directory) throws IOException { // created if missing, entries found there are kept
+        Files.createDirectories(directory);
+        this.directory = directory;
+        return this;
+    }
+
+    public TCPTrace trace(TCPScenario scenario) throws IllegalArgumentException {
+        try {
+            return (TCPTrace) get(scenario.key(), kind(TRACE), () -> {
+                TCPSimulator simulator = scenario.simulator().fastForward(fastForward);
+                return TCPTrace.record(simulator);
+            });
+        } catch (IOException e) { // only from the directory, as simulating does no I/O
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public byte[] image(TCPScenario scenario, String format) throws IOException { // svg, or as in ImageIO
+        if (!Plot.canSave(format)) {
+            throw new IllegalArgumentException("Unsupported format " + format);
+        }
+
+        return (byte[]) get(scenario.key(), kind(format.toLowerCase()), () -> {
+            TCPPlot plot = new TCPPlot(scenario.getRtt());
+            trace(scenario).replay(plot);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            plot.savePlot(out, format);
+            return out.toByteArray();
+        });
+    }
+
+    public Stats stats() {
+        synchronized (entries) {
+            return new Stats(hits.sum(), diskHits.sum(), misses.sum(), evictions.sum(), entries.size(), bytes);
+        }
+    }
+
+    public void clear() { // memory only, the directory is left as it is
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    private String kind(String kind) { // entries of runs fast forwarded or not are told apart
+        return fastForward ? kind + FAST_FORWARD : kind;
+    }
+
+    private Object get(String key, String kind, Loader loader) throws IOException {
+        String id = kind + '|' + key;
+        Object value = cached(id);
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+
+        CompletableFuture<Object> load = new CompletableFuture<>();
+        CompletableFuture<Object> other = loading.putIfAbsent(id, load);
+        if (other != null) { // being loaded by another thread
+            hits.increment();
+            return await(other);
+        }
+
+        try {
+            value = cached(id); // loaded by another thread in between, which was not loading it anymore
+            if (value != null) {
+                hits.increment();
+            } else if ((value = read(id, kind)) != null) {
+                diskHits.increment();
+                put(id, value);
+            } else {
+                misses.increment();
+                value = loader.load();
+                put(id, value);
+                write(id, kind, value);
+            }
+            load.complete(value);
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(id, load);
+        }
+    }
+
+    private Object cached(String id) { // null if not in memory
+        synchronized (entries) {
+            Entry entry = entries.get(id);
+            return entry == null ? null : entry.value;
+        }
+    }
+
+    private void put(String id, Object value) {
+        long size = ENTRY_OVERHEAD + 2L * id.length()
+                + (value instanceof TCPTrace trace ? trace.sizeBytes() : ((byte[]) value).length);
+        synchronized (entries) {
+            Entry previous = entries.put(id, new Entry(value, size));
+            bytes += size - (previous == null ? 0 : previous.size);
+            evict();
+        }
+    }
+
+    private void evict() { // holding the lock of entries
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().size;
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    // DIRECTORY
+    private Object read(String id, String kind) throws IOException { // null if not there (or not from this id)
+        if (directory == null) {
+            return null;
+        }
+
+        ByteBuffer in; // stays mapped after the channel is closed
+        try (FileChannel channel = FileChannel.open(file(id, kind), StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        try {
+            if (in.getInt() != MAGIC) {
+                return null;
+            }
+            byte[] stored = new byte[in.getInt()];
+            in.get(stored);
+            if (!id.equals(new String(stored, StandardCharsets.UTF_8))) { // another id with the same hash
+                return null;
+            }
+            if (kind.startsWith(TRACE)) {
+                return TCPTrace.readFrom(in);
+            }
+            byte[] image = new byte[in.remaining()];
+            in.get(image);
+            return image;
+        } catch (RuntimeException e) { // truncated or corrupted, simulated again and written over
+            return null;
+        }
+    }
+
+    private void write(String id, String kind, Object value) throws IOException {
+        if (directory == null) {
+            return;
+        }
+
+        byte[] stored = id.getBytes(StandardCharsets.UTF_8);
+        long size = 8 + stored.length
+                + (value instanceof TCPTrace trace ? trace.sizeBytes() : ((byte[]) value).length);
+        if (size > Integer.MAX_VALUE) {
+            return; // kept in memory only
+        }
+
+        ByteBuffer out = ByteBuffer.allocate((int) size).putInt(MAGIC).putInt(stored.length).put(stored);
+        if (value instanceof TCPTrace trace) {
+            trace.writeTo(out);
+        } else {
+            out.put((byte[]) value);
+        }
+
+        Path file = file(id, kind);
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, out.array());
+            try { // readers see the whole file or none, even with many processes on the same directory
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private Path file(String id, String kind) { // keys are long, so files are named after their hash
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(id.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(Character.forDigit(hash[i] >> 4 & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            return directory.resolve(name.append('.').append(kind).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-256
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> load) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return load.get();
+                } catch (InterruptedException e) {
+                    interrupted = true; // the result is still needed, so wait again
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw (Error) e.getCause();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private interface Loader {
+
+        Object load() throws IOException;
+    }
+
+    private static class Entry {
+
+        private final Object value; // TCPTrace or image bytes
+        private final long size; // in bytes, roughly
+
+        private Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    public static final class Stats {
+
+        private final long hits;
+        private final long diskHits;
+        private final long misses;
+        private final long evictions;
+        private final int entries;
+        private final long bytes;
+
+        private Stats(long hits, long diskHits, long misses, long evictions, int entries, long bytes) {
+            this.hits = hits;
+            this.diskHits = diskHits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        public long getHits() { // found in memory, or being loaded by another thread
+            return hits;
+        }
+
+        public long getDiskHits() {
+            return diskHits;
+        }
+
+        public long getMisses() { // simulated or drawn
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double hitRate() { // from memory or from the directory
+            long requests = hits + diskHits + misses;
+            return requests == 0 ? 0 : (double) (hits + diskHits) / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "TCPCache.Stats [hits=" + hits + ", diskHits=" + diskHits + ", misses=" + misses
+                    + ", evictions=" + evictions + ", entries=" + entries + ", bytes=" + bytes + "]";
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package it.univr.reti;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.Timer;
+
+/**
+ * Plot updated while the simulation runs. The simulation runs on its own
+ * thread and feeds the plot round by round, while a timer on the event
+ * dispatch thread draws what was appended a few times per second: only the
+ * region of the new points is drawn again and repainted, unless the axes,
+ * the grid or the legend changed. The x axis grows by doubling, so that
+ * happens rarely. When the simulation is over, the plot is the same as the
+ * one shown by {@link TCPSimulator#simulate()}.
+ */
+public class TCPLivePlot extends JComponent implements SimulationListener {
+
+    private static final int REFRESH_MILLIS = 100; // at most 10 repaints per sec, however fast rounds are
+    private static final int MIN_MAX_X = 8; // in sec, first maximum of the x axis
+
+    private static final long serialVersionUID = 1L; // never serialized, as it is only shown
+
+    private final Object lock = new Object(); // guards the plot, fed by the simulation thread
+    private final Timer timer = new Timer(REFRESH_MILLIS, e -> refresh());
+    private TCPPlot plot; // of the simulation started, guarded by lock
+    private boolean finished = false; // guarded by lock
+
+    // EVENT DISPATCH THREAD ONLY
+    private BufferedImage image;
+    private int maxX, maxY; // axes of the image
+    private int gridDensity, series; // grid and legend of the image
+
+    public TCPLivePlot() {
+        setPreferredSize(new Dimension(TCPPlot.WIDTH, TCPPlot.HEIGHT));
+        setOpaque(true);
+    }
+
+    public Thread start(TCPSimulator simulator, SimulationListener... others) { // the others are told too
+        SimulationListener[] listeners = new SimulationListener[others.length + 1];
+        listeners[0] = this;
+        System.arraycopy(others, 0, listeners, 1, others.length);
+        synchronized (lock) {
+            plot = new TCPPlot(simulator.getRtt());
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                simulator.run(SimulationListener.all(listeners));
+            } finally {
+                synchronized (lock) {
+                    finished = true;
+                }
+            }
+        }, "tcp-simulation");
+        thread.setDaemon(true);
+
+        timer.start();
+        thread.start();
+        return thread;
+    }
+
+    public void showFrame() { // in a frame like the one of TCPPlot, to be called on the event dispatch thread
+        JFrame f = new JFrame(TCPPlot.TITLE);
+        f.add(this);
+        f.setResizable(false);
+        f.pack();
+        f.setLocationRelativeTo(null);
+        f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        f.setVisible(true);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (image != null) {
+            g.drawImage(image, 0, 0, null);
+        } else {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, getWidth(), getHeight());
+        }
+    }
+
+    private void refresh() {
+        Rectangle dirty = null;
+
+        synchronized (lock) {
+            double[] appended = plot.appended();
+            if (finished) { // final plot, with axes fitting the data
+                timer.stop();
+                image = plot.getImage();
+            } else if (appended == null) {
+                return;
+            } else if (image == null || plot.maxX() > maxX || plot.maxY() + 1 > maxY
+                    || plot.gridDensity() != gridDensity || plot.series() != series) { // layout changed
+                if (image == null || plot.maxX() > maxX) {
+                    maxX = Math.max(plot.maxX(), Math.max(maxX * 2, MIN_MAX_X));
+                }
+                maxY = Math.max(maxY, plot.maxY() + 1); // y only grows with rcvwnd, so it fits it exactly
+                gridDensity = plot.gridDensity();
+                series = plot.series();
+                image = plot.getImage(maxX, maxY);
+            } else {
+                dirty = plot.redraw(image, maxX, maxY, appended[0], appended[1]);
+            }
+        }
+
+        if (dirty != null) {
+            repaint(dirty);
+        } else {
+            repaint();
+        }
+    }
+
+    @Override
+    public void onNetworkDown(int index, double start, double finish) {
+        synchronized (lock) {
+            plot.onNetworkDown(index, start, finish);
+        }
+    }
+
+    @Override
+    public void onRound(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd) {
+        synchronized (lock) {
+            plot.onRound(time, remaining, sent, cwnd, ssthresh, rcvwnd);
+        }
+    }
+
+    @Override
+    public void onRcvwndChange(double time, int previousRcvwnd, int rcvwnd) {
+        synchronized (lock) {
+            plot.onRcvwndChange(time, previousRcvwnd, rcvwnd);
+        }
+    }
+
+    @Override
+    public void onSkippedRounds(int quantum, int rounds, double rtt, double startCwnd, double cwnd, long remaining,
+            int ssthresh, int rcvwnd) {
+        synchronized (lock) {
+            plot.onSkippedRounds(quantum, rounds, rtt, startCwnd, cwnd, remaining, ssthresh, rcvwnd);
+        }
+    }
+
+    @Override
+    public void onSegmentLoss(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd,
+            double rtoExpiry, int rtoScaleFactor) {
+        synchronized (lock) {
+            plot.onSegmentLoss(time, remaining, sent, cwnd, ssthresh, rcvwnd, rtoExpiry, rtoScaleFactor);
+        }
+    }
+
+    @Override
+    public void onRtoBackoff(double time, int ssthresh, int rcvwnd, int rtoScaleFactor) {
+        synchronized (lock) {
+            plot.onRtoBackoff(time, ssthresh, rcvwnd, rtoScaleFactor);
+        }
+    }
+
+    @Override
+    public void onTimeout(int quantum, double time, int ssthresh) {
+        synchronized (lock) {
+            plot.onTimeout(quantum, time, ssthresh);
+        }
+    }
+
+    @Override
+    public void onEnd(double time, double cwnd, int ssthresh, int rcvwnd, boolean timedOut) {
+        synchronized (lock) {
+            plot.onEnd(time, cwnd, ssthresh, rcvwnd, timedOut);
+        }
+    }
+}
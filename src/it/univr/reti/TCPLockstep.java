@@ -0,0 +1,319 @@
+package it.univr.reti;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Many scenarios simulated side by side, for huge sweeps. Instead of a
+ * {@link TCPSimulator} each, with its own events and listener calls,
+ * scenarios are packed in blocks of lanes (a column per variable: cwnd,
+ * ssthresh, data left, rcvwnd, rto scale factor, ...) and every block moves
+ * quantum by quantum, all lanes at once: lanes sending in the quantum take
+ * the round, the one of slow start or congestion avoidance, or the loss,
+ * masked by their own state. The arithmetic is done by a kernel: with the
+ * Vector API, if the vector folder was compiled and the JVM was started with
+ * --add-modules jdk.incubator.vector, or lane by lane otherwise. Results are
+ * the ones of {@link TCPSimulator#run()}, without fast forward.
+ */
+public class TCPLockstep {
+
+    private static final int LANES_PER_BLOCK = 1024; // scenarios of a block, a task each
+    private static final Kernel VECTOR_KERNEL = vectorKernel(); // null if the Vector API cannot be used
+
+    // LANE STATES
+    static final double RUNNING = 0;
+    static final double COMPLETED = 1;
+    static final double TIMED_OUT = 2;
+    static final double TOO_LONG = 3; // past TCPSimulator.MAX_QUANTA, where run() throws, so a null result
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private boolean vectorized = true;
+
+    public static TCPLockstep lockstep() {
+        return new TCPLockstep();
+    }
+
+    private TCPLockstep() {
+    }
+
+    public TCPLockstep parallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid parallelism provided (must be > 0)");
+        }
+
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public TCPLockstep vectorized(boolean enabled) { // false to use the lane by lane kernel anyway
+        this.vectorized = enabled;
+        return this;
+    }
+
+    public static boolean isVectorAvailable() {
+        return VECTOR_KERNEL != null;
+    }
+
+    public TCPResult[] run(List<TCPScenario> scenarios) { // in the same order, null for invalid scenarios
+        TCPResult[] results = new TCPResult[scenarios.size()];
+        Kernel kernel = vectorized && VECTOR_KERNEL != null ? VECTOR_KERNEL : new ScalarKernel();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try {
+            pool.invoke(new BlockTask(scenarios, results, kernel, 0,
+                    (scenarios.size() + LANES_PER_BLOCK - 1) / LANES_PER_BLOCK));
+        } finally {
+            pool.shutdown();
+        }
+
+        return results;
+    }
+
+    private static void simulate(List<TCPScenario> scenarios, TCPResult[] results, Kernel kernel, int block) {
+        int from = block * LANES_PER_BLOCK;
+        int to = Math.min(from + LANES_PER_BLOCK, scenarios.size());
+        Lanes lanes = new Lanes(to - from);
+
+        int running = 0;
+        for (int i = from; i < to; i++) {
+            try {
+                scenarios.get(i).simulator().pack(lanes, running);
+                lanes.index[running++] = i;
+            } catch (IllegalArgumentException e) { // invalid scenario, no lane and a null result
+            }
+        }
+        lanes.size = running;
+
+        int time = 0;
+        for (int i = 0; i < lanes.size; i++) {
+            lanes.tell(i, time);
+        }
+
+        while (running > 0) {
+            kernel.step(lanes, time);
+
+            // next quantum in which a lane sends (quanta in which none does are skipped): most lanes send in the
+            // following one, so they are told what they need right away
+            running = 0;
+            int next = Integer.MAX_VALUE;
+            for (int i = 0; i < lanes.size; i++) {
+                if (lanes.state[i] == RUNNING && lanes.next[i] >= TCPSimulator.MAX_QUANTA) {
+                    lanes.state[i] = TOO_LONG;
+                }
+                if (lanes.state[i] == RUNNING) {
+                    running++;
+                    next = Math.min(next, (int) lanes.next[i]);
+                    if (lanes.next[i] == time + 1) {
+                        lanes.tell(i, time + 1);
+                    }
+                }
+            }
+            if (running > 0 && next != time + 1) { // all of them waiting for rto
+                for (int i = 0; i < lanes.size; i++) {
+                    if (lanes.state[i] == RUNNING && lanes.next[i] == next) {
+                        lanes.tell(i, next);
+                    }
+                }
+            }
+            time = next;
+
+            if (running <= lanes.size / 2) { // lanes over are not stepped anymore, however long the others last
+                lanes.compact(results);
+            }
+        }
+
+        lanes.compact(results);
+    }
+
+    private static Kernel vectorKernel() {
+        try { // compiled from the vector folder, needing the incubator module at run time
+            return (Kernel) Class.forName("it.univr.reti.VectorKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private class BlockTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L; // never serialized, as the pool runs it in place
+
+        private final List<TCPScenario> scenarios;
+        private final TCPResult[] results;
+        private final Kernel kernel;
+        private final int from; // block, inclusive
+        private final int to; // block, exclusive
+
+        private BlockTask(List<TCPScenario> scenarios, TCPResult[] results, Kernel kernel, int from, int to) {
+            this.scenarios = scenarios;
+            this.results = results;
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int block = from; block < to; block++) {
+                    simulate(scenarios, results, kernel, block);
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new BlockTask(scenarios, results, kernel, from, middle),
+                    new BlockTask(scenarios, results, kernel, middle, to));
+        }
+    }
+
+    interface Kernel {
+
+        void step(Lanes lanes, int time); // one quantum, for the running lanes whose next round is now
+    }
+
+    static class Lanes { // doubles only (exact for these values), so that a vector holds the same lanes for all
+
+        int size; // lanes in use
+        final int[] index; // of the scenario of each lane
+
+        // STATE
+        final double[] data; // in segments, left to send
+        final double[] cwnd; // in segments
+        final double[] ssthresh; // in segments
+        final double[] rcvwnd; // in segments, the last one told
+        final double[] rtoScaleFactor;
+        final double[] rto; // times compared to rtt
+        final double[] next; // quantum of the next round, or of the end once the lane is not running
+        final double[] rounds;
+        final double[] losses;
+        final double[] state; // RUNNING, COMPLETED, TIMED_OUT or TOO_LONG
+
+        // TOLD EVERY QUANTUM, to the lanes sending in it
+        final double[] down; // 1 if the network is down, 0 otherwise
+        final double[] rcvwndNow; // in segments
+
+        // SCHEDULES
+        final double[] rtt;
+        final int[] mssBytes;
+        final NetworkDownIndex[] networkDownIndex;
+        final RcvwndSchedule[] rcvwnds;
+
+        Lanes(int capacity) {
+            index = new int[capacity];
+            data = new double[capacity];
+            cwnd = new double[capacity];
+            ssthresh = new double[capacity];
+            rcvwnd = new double[capacity];
+            rtoScaleFactor = new double[capacity];
+            rto = new double[capacity];
+            next = new double[capacity];
+            rounds = new double[capacity];
+            losses = new double[capacity];
+            state = new double[capacity];
+            down = new double[capacity];
+            rcvwndNow = new double[capacity];
+            rtt = new double[capacity];
+            mssBytes = new int[capacity];
+            networkDownIndex = new NetworkDownIndex[capacity];
+            rcvwnds = new RcvwndSchedule[capacity];
+        }
+
+        void compact(TCPResult[] results) { // results of the lanes over, the running ones moved to the front
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (state[i] == TOO_LONG) {
+                    results[index[i]] = null;
+                } else if (state[i] != RUNNING) {
+                    results[index[i]] = new TCPResult((int) next[i] * rtt[i], (int) rounds[i], (int) losses[i],
+                            state[i] == TIMED_OUT);
+                } else if (kept++ < i) {
+                    move(i, kept - 1);
+                }
+            }
+            size = kept;
+        }
+
+        void tell(int lane, int time) { // what a lane sending in the quantum needs, from its schedules
+            down[lane] = networkDownIndex[lane].isNetworkDown(time) ? 1 : 0;
+            rcvwndNow[lane] = rcvwnds[lane].valueAt(time) / mssBytes[lane];
+        }
+
+        private void move(int from, int to) {
+            index[to] = index[from];
+            data[to] = data[from];
+            cwnd[to] = cwnd[from];
+            ssthresh[to] = ssthresh[from];
+            rcvwnd[to] = rcvwnd[from];
+            rtoScaleFactor[to] = rtoScaleFactor[from];
+            rto[to] = rto[from];
+            next[to] = next[from];
+            rounds[to] = rounds[from];
+            losses[to] = losses[from];
+            state[to] = state[from];
+            down[to] = down[from];
+            rcvwndNow[to] = rcvwndNow[from];
+            rtt[to] = rtt[from];
+            mssBytes[to] = mssBytes[from];
+            networkDownIndex[to] = networkDownIndex[from];
+            rcvwnds[to] = rcvwnds[from];
+        }
+
+        void set(int lane, long data, int mssBytes, double cwnd, int ssthresh, int rcvwnd, int rtoScaleFactor,
+                double rto, double rtt, NetworkDownIndex networkDownIndex, RcvwndSchedule rcvwnds) {
+            this.data[lane] = data;
+            this.cwnd[lane] = cwnd;
+            this.ssthresh[lane] = ssthresh;
+            this.rcvwnd[lane] = rcvwnd;
+            this.rtoScaleFactor[lane] = rtoScaleFactor;
+            this.rto[lane] = rto;
+            this.rtt[lane] = rtt;
+            this.mssBytes[lane] = mssBytes;
+            this.networkDownIndex[lane] = networkDownIndex;
+            this.rcvwnds[lane] = rcvwnds;
+        }
+    }
+
+    static class ScalarKernel implements Kernel { // the rules of TCPSimulator.transmitRound, lane by lane
+
+        @Override
+        public void step(Lanes lanes, int time) {
+            step(lanes, time, 0, lanes.size);
+        }
+
+        void step(Lanes l, int time, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (l.state[i] != RUNNING || l.next[i] != time) {
+                    continue;
+                }
+
+                if (l.down[i] == 0) {
+                    l.rtoScaleFactor[i] = TCPSimulator.MIN_RTO;
+                    if (l.data[i] == 0) {
+                        l.state[i] = COMPLETED;
+                        continue;
+                    }
+
+                    double sent = Math.min(Math.floor(l.cwnd[i]), l.data[i]);
+                    l.data[i] -= sent;
+                    l.rounds[i]++;
+                    l.rcvwnd[i] = l.rcvwndNow[i];
+                    l.cwnd[i] = l.cwnd[i] < l.ssthresh[i]
+                            ? Math.min(Math.min(l.cwnd[i] + sent, l.ssthresh[i]), l.rcvwnd[i]) // slow start
+                            : Math.min(l.cwnd[i] + sent / l.cwnd[i], l.rcvwnd[i]); // congestion avoidance
+                    l.next[i] = time + 1;
+                } else {
+                    l.rounds[i]++;
+                    l.losses[i]++;
+                    l.ssthresh[i] = TCPSimulator.ssthreshAfterLoss(l.cwnd[i]);
+                    l.cwnd[i] = TCPSimulator.MIN_CWND;
+                    l.next[i] = time + l.rto[i] * l.rtoScaleFactor[i];
+                    l.rtoScaleFactor[i] *= 2;
+                    if (l.rtoScaleFactor[i] == TCPSimulator.MAX_RTO) {
+                        l.state[i] = TIMED_OUT;
+                    }
+                }
+            }
+        }
+    }
+}
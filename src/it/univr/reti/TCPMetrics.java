@@ -0,0 +1,227 @@
+package it.univr.reti;
+
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Where the time goes, phase by phase, and how much work was done. Every
+ * phase is a JFR event, recorded when a recording enables it (e.g. with
+ * -XX:StartFlightRecording). While metrics are enabled, phases are also timed
+ * and added up together with the counters, and {@link #snapshot()} reads
+ * them at any time. When both are off, a phase costs the check of a flag, and
+ * simulations add their counters once per run, never per round.
+ */
+public final class TCPMetrics {
+
+    public enum Phase {
+        SIMULATION, // listeners included
+        PLOT_ASSEMBLY, // series of a TCPPlot added to its plot
+        LAYOUT, // axes, labels and legend measured and drawn
+        SERIES_DRAWING, // series prepared and drawn
+        ENCODING // image written as png, jpg, ... or svg
+    }
+
+    public enum Counter {
+        SIMULATIONS,
+        ROUNDS, // skipped ones included
+        NETWORK_DOWN_CHECKS,
+        LOST_ROUNDS, // rounds sent while the network was down
+        RTO_BACKOFFS,
+        TIMEOUTS,
+        POINTS_PLOTTED, // points of the series assembled in plots
+        POINTS_DRAWN, // after thinning, lines and markers
+        PIXELS_DRAWN // of the images and regions drawn
+    }
+
+    private static final long NOT_TIMED = Long.MIN_VALUE; // start of phases began while metrics were disabled
+
+    private static volatile boolean enabled = false;
+    private static final LongAdder[] counters = adders(Counter.values().length);
+    private static final LongAdder[] calls = adders(Phase.values().length);
+    private static final LongAdder[] nanos = adders(Phase.values().length);
+
+    private TCPMetrics() {
+    }
+
+    public static void enable(boolean enabled) {
+        TCPMetrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static Snapshot snapshot() { // values so far, each one read independently of the others
+        long[] counterValues = new long[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            counterValues[i] = counters[i].sum();
+        }
+        long[] callValues = new long[calls.length], nanoValues = new long[nanos.length];
+        for (int i = 0; i < calls.length; i++) {
+            callValues[i] = calls[i].sum();
+            nanoValues[i] = nanos[i].sum();
+        }
+        return new Snapshot(counterValues, callValues, nanoValues);
+    }
+
+    public static void reset() {
+        for (LongAdder adder : counters) {
+            adder.reset();
+        }
+        for (int i = 0; i < calls.length; i++) {
+            calls[i].reset();
+            nanos[i].reset();
+        }
+    }
+
+    static <E extends PhaseEvent> E begin(E event) {
+        event.start = enabled ? System.nanoTime() : NOT_TIMED;
+        event.begin();
+        return event;
+    }
+
+    static void end(PhaseEvent event, long items) { // items: rounds, points, ... as said by each event
+        event.end();
+        if (event.start != NOT_TIMED) {
+            int phase = event.phase().ordinal();
+            nanos[phase].add(System.nanoTime() - event.start);
+            calls[phase].increment();
+        }
+        if (event.shouldCommit()) {
+            event.items = items;
+            event.commit();
+        }
+    }
+
+    static void count(Counter counter, long value) {
+        if (enabled) {
+            counters[counter.ordinal()].add(value);
+        }
+    }
+
+    private static LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public static final class Snapshot {
+
+        private final long[] counters;
+        private final long[] calls;
+        private final long[] nanos;
+
+        private Snapshot(long[] counters, long[] calls, long[] nanos) {
+            this.counters = counters;
+            this.calls = calls;
+            this.nanos = nanos;
+        }
+
+        public long get(Counter counter) {
+            return counters[counter.ordinal()];
+        }
+
+        public long getCalls(Phase phase) {
+            return calls[phase.ordinal()];
+        }
+
+        public long getNanos(Phase phase) { // in all calls
+            return nanos[phase.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder("TCPMetrics [");
+            for (Phase phase : Phase.values()) {
+                s.append(phase).append('=').append(getCalls(phase)).append(" in ")
+                        .append(getNanos(phase) / 1_000_000).append(" ms, ");
+            }
+            for (Counter counter : Counter.values()) {
+                s.append(counter).append('=').append(get(counter)).append(", ");
+            }
+            s.setLength(s.length() - 2);
+            return s.append(']').toString();
+        }
+    }
+
+    // JFR EVENTS
+    @Category("TCP Simulator")
+    abstract static class PhaseEvent extends Event {
+
+        @Label("Items")
+        long items;
+
+        transient long start; // for metrics, not recorded
+
+        abstract Phase phase();
+    }
+
+    @Name("it.univr.reti.Simulation")
+    @Label("Simulation")
+    @Category("TCP Simulator")
+    @Description("Run of a simulator, listeners included; items are rounds")
+    static final class SimulationEvent extends PhaseEvent {
+
+        @Override
+        Phase phase() {
+            return Phase.SIMULATION;
+        }
+    }
+
+    @Name("it.univr.reti.PlotAssembly")
+    @Label("Plot Assembly")
+    @Category("TCP Simulator")
+    @Description("Series of a simulation added to its plot; items are points")
+    static final class PlotAssemblyEvent extends PhaseEvent {
+
+        @Override
+        Phase phase() {
+            return Phase.PLOT_ASSEMBLY;
+        }
+    }
+
+    @Name("it.univr.reti.Layout")
+    @Label("Plot Layout")
+    @Category("TCP Simulator")
+    @Description("Axes, labels and legend of a plot measured and drawn; items are series")
+    static final class LayoutEvent extends PhaseEvent {
+
+        @Override
+        Phase phase() {
+            return Phase.LAYOUT;
+        }
+    }
+
+    @Name("it.univr.reti.SeriesDrawing")
+    @Label("Series Drawing")
+    @Category("TCP Simulator")
+    @Description("Series of a plot prepared and drawn; items are points drawn")
+    static final class SeriesDrawingEvent extends PhaseEvent {
+
+        @Override
+        Phase phase() {
+            return Phase.SERIES_DRAWING;
+        }
+    }
+
+    @Name("it.univr.reti.Encoding")
+    @Label("Plot Encoding")
+    @Category("TCP Simulator")
+    @Description("Plot written in a format; items are pixels, or points for svg")
+    static final class EncodingEvent extends PhaseEvent {
+
+        @Label("Format")
+        String format;
+
+        @Override
+        Phase phase() {
+            return Phase.ENCODING;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package it.univr.reti;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Many runs of the same scenario under random losses (see {@link LossModel}),
+ * simulated in parallel on a fork-join pool, summed up as statistics of
+ * completion time and goodput. Runs are split in blocks, each with its own
+ * random stream split from the seed in block order, and every run of a block
+ * splits its own stream in turn: the same seed gives the same results however
+ * many threads run them. Runs can also be written to a {@link TCPResultStore}
+ * instead, when there are too many of them to be kept.
+ */
+public class TCPMonteCarlo {
+
+    private static final int BLOCK = 64; // runs drawing from the same stream, simulated by a task without splitting
+    private static final double Z_95 = 1.959963984540054; // quantile of the normal distribution for 95% intervals
+
+    private final TCPScenario scenario;
+    private LossModel lossModel;
+    private int replications = 1000;
+    private long seed = 42;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public static TCPMonteCarlo monteCarlo(TCPScenario scenario) {
+        return new TCPMonteCarlo(scenario);
+    }
+
+    private TCPMonteCarlo(TCPScenario scenario) {
+        this.scenario = scenario;
+    }
+
+    public TCPMonteCarlo lossModel(LossModel lossModel) {
+        this.lossModel = lossModel;
+        return this;
+    }
+
+    public TCPMonteCarlo replications(int replications) {
+        if (replications <= 1) {
+            throw new IllegalArgumentException("Invalid replications provided (must be > 1)");
+        }
+
+        this.replications = replications;
+        return this;
+    }
+
+    public TCPMonteCarlo seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public TCPMonteCarlo parallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid parallelism provided (must be > 0)");
+        }
+
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public Result run() throws IllegalArgumentException {
+        Result result = new Result(replications);
+        run(result, null, null);
+        return result.summarize();
+    }
+
+    public long run(TCPResultStore store) throws IllegalArgumentException {
+        // runs written to the store (with their traces, if it keeps them) at their replication index instead of
+        // summed up; runs already stored are skipped, the others drawing what they would have anyway. Returns
+        // the runs simulated now
+        if (store.capacity() < replications) {
+            throw new IllegalArgumentException("Invalid store provided (room for " + store.capacity() + " runs, "
+                    + replications + " needed)");
+        }
+        if (lossModel == null) {
+            throw new IllegalArgumentException("A loss model is needed");
+        }
+        // replications left out, as more of them only add runs after the ones stored
+        store.claim("monteCarlo " + scenario.key() + " " + lossModel + " " + seed);
+
+        LongAdder simulated = new LongAdder();
+        run(null, store, simulated);
+        return simulated.sum();
+    }
+
+    private void run(Result result, TCPResultStore store, LongAdder simulated) throws IllegalArgumentException {
+        if (lossModel == null) {
+            throw new IllegalArgumentException("A loss model is needed");
+        }
+        scenario.simulator(); // invalid scenarios fail here, once
+
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] streams = new SplittableRandom[(replications + BLOCK - 1) / BLOCK];
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = root.split();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try {
+            pool.invoke(new ReplicationTask(result, store, simulated, streams, 0, streams.length));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void simulate(Result result, int index, SplittableRandom random) {
+        Delivery delivery = new Delivery(scenario.getDataBytes() / scenario.getMssBytes());
+        TCPResult run = scenario.simulator().randomLoss(lossModel, random).run(delivery);
+
+        result.completionTimes[index] = run.getCompletionTime();
+        result.goodputs[index] = goodput(run, delivery);
+        result.timedOut[index] = run.isTimedOut();
+    }
+
+    private void simulate(TCPResultStore store, int index, SplittableRandom random) {
+        Delivery delivery = new Delivery(scenario.getDataBytes() / scenario.getMssBytes());
+        TCPSimulator simulator = scenario.simulator().randomLoss(lossModel, random);
+        TCPTrace trace = null;
+        TCPResult run;
+
+        if (store.keepsTraces()) {
+            trace = TCPTrace.record(simulator);
+            trace.replay(delivery);
+            run = trace.getResult();
+        } else {
+            run = simulator.run(delivery);
+        }
+
+        store.put(index, scenario.getMssBytes(), scenario.getDataBytes(), scenario.getSsthresh(), scenario.getRtt(),
+                -1, -1, run, goodput(run, delivery), trace);
+    }
+
+    private double goodput(TCPResult run, Delivery delivery) { // in bytes per sec
+        return run.getCompletionTime() > 0
+                ? (double) (delivery.segments - delivery.remaining) * scenario.getMssBytes() / run.getCompletionTime()
+                : 0;
+    }
+
+    private static class Delivery implements SimulationListener { // data left after the last round not lost
+
+        private final long segments;
+        private long remaining;
+
+        private Delivery(long segments) {
+            this.segments = segments;
+            this.remaining = segments;
+        }
+
+        @Override
+        public void onRound(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd) {
+            this.remaining = remaining;
+        }
+    }
+
+    private class ReplicationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L; // never serialized, as the pool runs it in place
+
+        private final Result result; // null if runs are only stored
+        private final TCPResultStore store; // null if runs are only summed up
+        private final LongAdder simulated; // runs not found in the store
+        private final SplittableRandom[] streams;
+        private final int from; // block, inclusive
+        private final int to; // block, exclusive
+
+        private ReplicationTask(Result result, TCPResultStore store, LongAdder simulated, SplittableRandom[] streams,
+                int from, int to) {
+            this.result = result;
+            this.store = store;
+            this.simulated = simulated;
+            this.streams = streams;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                for (int i = from * BLOCK; i < Math.min((from + 1) * BLOCK, replications); i++) {
+                    SplittableRandom random = streams[from].split(); // split anyway, for the runs after it
+                    if (store == null) {
+                        simulate(result, i, random);
+                    } else if (!store.isStored(i)) {
+                        simulate(store, i, random);
+                        simulated.increment();
+                    }
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new ReplicationTask(result, store, simulated, streams, from, middle),
+                    new ReplicationTask(result, store, simulated, streams, middle, to));
+        }
+    }
+
+    public static class Result {
+
+        private final double[] completionTimes; // in sec, of every run
+        private final double[] goodputs; // in bytes per sec, data delivered over completion time
+        private final boolean[] timedOut;
+        private Statistics completionTime;
+        private Statistics goodput;
+        private int timeouts;
+
+        private Result(int replications) {
+            this.completionTimes = new double[replications];
+            this.goodputs = new double[replications];
+            this.timedOut = new boolean[replications];
+        }
+
+        private Result summarize() {
+            completionTime = new Statistics(completionTimes);
+            goodput = new Statistics(goodputs);
+            for (boolean run : timedOut) {
+                timeouts += run ? 1 : 0;
+            }
+            return this;
+        }
+
+        public int getReplications() {
+            return completionTimes.length;
+        }
+
+        public int getTimeouts() { // runs in which the connection was closed before the end
+            return timeouts;
+        }
+
+        public Statistics getCompletionTime() { // in sec
+            return completionTime;
+        }
+
+        public Statistics getGoodput() { // in bytes per sec
+            return goodput;
+        }
+
+        public double getCompletionTime(int replication) {
+            return completionTimes[replication];
+        }
+
+        public double getGoodput(int replication) {
+            return goodputs[replication];
+        }
+
+        public boolean isTimedOut(int replication) {
+            return timedOut[replication];
+        }
+
+        @Override
+        public String toString() {
+            return "Result [replications=" + getReplications() + ", timeouts=" + timeouts
+                    + ", completionTime=" + completionTime + ", goodput=" + goodput + "]";
+        }
+    }
+
+    public static class Statistics {
+
+        private final double[] sorted;
+        private final double mean;
+        private final double stdDev; // of the sample
+
+        private Statistics(double[] values) {
+            this.sorted = values.clone();
+            Arrays.sort(sorted);
+
+            double sum = 0;
+            for (double value : sorted) {
+                sum += value;
+            }
+            this.mean = sum / sorted.length;
+
+            double squares = 0;
+            for (double value : sorted) {
+                squares += (value - mean) * (value - mean);
+            }
+            this.stdDev = Math.sqrt(squares / (sorted.length - 1));
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getStdDev() {
+            return stdDev;
+        }
+
+        public double getMin() {
+            return sorted[0];
+        }
+
+        public double getMax() {
+            return sorted[sorted.length - 1];
+        }
+
+        public double getConfidenceLow() { // 95% interval of the mean, normal approximation
+            return mean - Z_95 * stdDev / Math.sqrt(sorted.length);
+        }
+
+        public double getConfidenceHigh() {
+            return mean + Z_95 * stdDev / Math.sqrt(sorted.length);
+        }
+
+        public double percentile(double p) { // p in [0, 100], interpolated between the closest runs
+            if (!(p >= 0 && p <= 100)) {
+                throw new IllegalArgumentException("Invalid percentile provided (must be in [0, 100])");
+            }
+
+            double rank = p / 100 * (sorted.length - 1);
+            int below = (int) rank;
+            if (below == sorted.length - 1) {
+                return sorted[below];
+            }
+            return sorted[below] + (rank - below) * (sorted[below + 1] - sorted[below]);
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics [mean=" + mean + ", ci95=[" + getConfidenceLow() + ", " + getConfidenceHigh()
+                    + "], stdDev=" + stdDev + ", min=" + getMin() + ", p50=" + percentile(50)
+                    + ", p90=" + percentile(90) + ", p99=" + percentile(99) + ", max=" + getMax() + "]";
+        }
+    }
+}
@@ -4,6 +4,10 @@ import it.univr.reti.Plot.AxisFormat;
 import it.univr.reti.Plot.DataSeriesOptions;
 import it.univr.reti.Plot.Line;
 import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -12,13 +16,13 @@ import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 
-class TCPPlot {
+class TCPPlot implements SimulationListener {
 
     // WINDOW & FILES PARAMETERS
-    private static final int WIDTH = 900;
-    private static final int HEIGHT = 650;
+    static final int WIDTH = 900;
+    static final int HEIGHT = 650;
     private static final int PADDING = 27;
-    private static final String TITLE = "TCP Plot";
+    static final String TITLE = "TCP Plot";
     private static final Color TRANSPARENT_LIGHT_BLUE = new Color(33 / 255f, 170 / 255f, 1f, .4f);
 
     // PLOT LABELS
@@ -31,31 +35,16 @@ class TCPPlot {
     public static final String SEGMENTS_LOST_LABEL = "Segments Lost";
     public static final String CONNECTION_TIMED_OUT_LABEL = "Timeout";
 
-    // INDEXES
-    private static final int X_VALUES_INDEX = 0;
-    private static final int Y_VALUES_INDEX = 1;
-
     // AUXILIARY VARIABLES
     private final Plot plot; // actual plot
     private final Map<Integer, double[]> networkDowns = new HashMap<>(); // in sec {start, finish}
-    private final Map<String, List<double[]>> data = new HashMap<>(); // in segments {time, value}
-    private static final Map<String, DataSeriesOptions> options = Map.ofEntries( // graphic options for each series
-            Map.entry(CWND_LABEL,
-                    Plot.seriesOpts().line(Line.NONE).color(Color.BLACK).marker(Plot.Marker.CIRCLE)
-                            .markerColor(Color.BLACK)),
-            Map.entry(SSTHRESH_LABEL, Plot.seriesOpts().color(Color.blue)),
-            Map.entry(RCVWND_LABEL, Plot.seriesOpts().color(Color.GREEN)),
-            Map.entry(NETWORK_DOWN_LABEL,
-                    Plot.seriesOpts().color(Color.WHITE).areaColor(TRANSPARENT_LIGHT_BLUE)
-                            .line(Line.DASHED)),
-            Map.entry(SEGMENTS_LOST_LABEL,
-                    Plot.seriesOpts().line(Line.NONE).color(Color.RED).marker(Plot.Marker.X)
-                            .markerColor(Color.RED)),
-            Map.entry(CONNECTION_TIMED_OUT_LABEL,
-                    Plot.seriesOpts().line(Line.NONE).color(Color.RED).marker(Plot.Marker.DOUBLE_LINE)
-                            .markerColor(Color.BLACK)));
-
-    public TCPPlot() {
+    private final Map<String, Plot.Data> data = new HashMap<>(); // in segments, one column of times and one of values
+    private final Map<String, DataSeriesOptions> options = seriesOptions(); // one per plot, as they are bound to it
+    private final Map<String, Integer> reported = new HashMap<>(); // points of each series seen by appended()
+    private final double rtt; // in sec, of the simulation plotted
+
+    public TCPPlot(double rtt) {
+        this.rtt = rtt;
         plot = Plot.plot(Plot.plotOpts().title(TITLE)
                 .legend(Plot.LegendFormat.BOTTOM)
                 .width(WIDTH)
@@ -64,37 +53,164 @@ class TCPPlot {
     }
 
     public void addPointToPlot(String name, double xValue, double yValue) {
-        data.computeIfAbsent(name, k -> new ArrayList<double[]>()).add(new double[]{xValue, yValue});
+        data.computeIfAbsent(name, k -> Plot.data()).xy(xValue, yValue);
     }
 
     public void addNetworkDownToPlot(int count, double[] range) {
         networkDowns.put(count, range);
     }
 
+    @Override
+    public void onNetworkDown(int index, double start, double finish) {
+        addNetworkDownToPlot(index, new double[]{start, finish});
+    }
+
+    @Override
+    public void onRound(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd) {
+        addPointToPlot(CWND_LABEL, time, cwnd);
+        addPointToPlot(RCVWND_LABEL, time, rcvwnd);
+        addPointToPlot(SSTHRESH_LABEL, time, ssthresh);
+    }
+
+    @Override
+    public void onRcvwndChange(double time, int previousRcvwnd, int rcvwnd) {
+        addPointToPlot(RCVWND_LABEL, time, previousRcvwnd); // the old one until now, to have straight lines
+    }
+
+    @Override
+    public void onSkippedRounds(int quantum, int rounds, double rtt, double startCwnd, double cwnd, long remaining,
+            int ssthresh, int rcvwnd) {
+        // kept as runs of points at the same value, one per round as the rounds would have, read only when drawn:
+        // ssthresh and rcvwnd do not change in the span, and cwnd stops changing once it reaches rcvwnd (the rounds
+        // before, as many as the simulator replays, are added one by one)
+        Plot.Data cwnds = data.computeIfAbsent(CWND_LABEL, k -> Plot.data());
+        double value = startCwnd;
+        int grown = 0;
+        for (; grown < rounds && value != rcvwnd; grown++) {
+            cwnds.xy((quantum + grown) * rtt, value);
+            value = TCPSimulator.nextCwnd(value, (int) value, ssthresh, rcvwnd);
+        }
+        cwnds.run(quantum + grown, rounds - grown, rtt, value);
+        data.computeIfAbsent(RCVWND_LABEL, k -> Plot.data()).run(quantum, rounds, rtt, rcvwnd);
+        data.computeIfAbsent(SSTHRESH_LABEL, k -> Plot.data()).run(quantum, rounds, rtt, ssthresh);
+    }
+
+    @Override
+    public void onSegmentLoss(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd,
+            double rtoExpiry, int rtoScaleFactor) {
+        addPointToPlot(SSTHRESH_LABEL, rtoExpiry, ssthresh); // until rto expires, to have straight lines
+        addPointToPlot(RCVWND_LABEL, time, rcvwnd);
+        addPointToPlot(SEGMENTS_LOST_LABEL, time, cwnd);
+    }
+
+    @Override
+    public void onRtoBackoff(double time, int ssthresh, int rcvwnd, int rtoScaleFactor) {
+        addPointToPlot(RCVWND_LABEL, time, rcvwnd);
+        addPointToPlot(SSTHRESH_LABEL, time, ssthresh);
+    }
+
+    @Override
+    public void onTimeout(int quantum, double time, int ssthresh) {
+        addPointToPlot(CONNECTION_TIMED_OUT_LABEL, time, ssthresh);
+    }
+
+    @Override
+    public void onEnd(double time, double cwnd, int ssthresh, int rcvwnd, boolean timedOut) {
+        if (!timedOut) {
+            addPointToPlot(CWND_LABEL, time, cwnd);
+        }
+        addPointToPlot(RCVWND_LABEL, time, rcvwnd);
+        addPointToPlot(SSTHRESH_LABEL, time, ssthresh);
+    }
+
     public void showPlot() {
-        int maxY = -1, maxX = -1, gridDensity = 1;
+        JFrame f = new JFrame(TITLE); // show plot in a frame
+        f.add(new JLabel(new ImageIcon(getImage())));
+        f.setResizable(false);
+        f.pack();
+        f.setLocationRelativeTo(null);
+        f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        f.setVisible(true);
+    }
 
-        for (String name : data.keySet()) { // find max values for axes
-            for (double[] value : data.get(name)) {
-                if (value[Y_VALUES_INDEX] > maxY) {
-                    maxY = (int) value[Y_VALUES_INDEX];
-                }
+    public BufferedImage getImage() { // does not need a display, works headless too
+        buildPlot();
+        return plot.getImage();
+    }
+
+    public void savePlot(OutputStream out, String format) throws IOException { // svg, or png, jpg, ... as in ImageIO
+        buildPlot();
+        plot.save(out, format);
+    }
 
-                if (value[X_VALUES_INDEX] > maxX) {
-                    maxX = (int) value[X_VALUES_INDEX];
-                }
+    BufferedImage getImage(int maxX, int maxY) { // with axes up to the given values
+        buildPlot(maxX, maxY);
+        return plot.getImage();
+    }
+
+    // draws again the region of an image from getImage(maxX, maxY) between two x values, returning the region
+    Rectangle redraw(BufferedImage image, int maxX, int maxY, double fromX, double toX) {
+        buildPlot(maxX, maxY);
+        Rectangle region = plot.region(fromX, toX);
+        plot.redraw(image, region);
+        return region;
+    }
+
+    // {from, to}: x values spanned by the points appended since the last call, and by the lines reaching them
+    double[] appended() {
+        double from = Double.POSITIVE_INFINITY, to = Double.NEGATIVE_INFINITY;
+
+        for (Map.Entry<String, Plot.Data> entry : data.entrySet()) {
+            Plot.Data values = entry.getValue();
+            int seen = reported.getOrDefault(entry.getKey(), 0);
+            if (values.size() > seen) {
+                double[] range = values.xRange(Math.max(0, seen - 1)); // from the last point seen
+                from = Math.min(from, range[0]);
+                to = Math.max(to, range[1]);
+                reported.put(entry.getKey(), values.size());
             }
         }
 
-        maxY++; // add extra room
+        return from <= to ? new double[]{from, to} : null;
+    }
 
-        List<double[]> temp; // check if rtt is decimal
-        if ((temp = data.getOrDefault(CWND_LABEL, null)) != null) {
-            if (temp.get(1)[X_VALUES_INDEX] % 1 != 0) {
-                gridDensity = 2;
+    int maxX() {
+        int maxX = -1;
+        for (Plot.Data values : data.values()) {
+            if (values.size() > 0) {
+                maxX = Math.max(maxX, (int) values.maxX());
             }
         }
+        return maxX;
+    }
+
+    int maxY() {
+        int maxY = -1;
+        for (Plot.Data values : data.values()) {
+            if (values.size() > 0) {
+                maxY = Math.max(maxY, (int) values.maxY());
+            }
+        }
+        return maxY;
+    }
+
+    int gridDensity() { // grid lines per sec, a line per round if rtt is decimal
+        return rtt % 1 != 0 ? 2 : 1;
+    }
+
+    int series() {
+        return data.size();
+    }
 
+    private void buildPlot() {
+        buildPlot(maxX(), maxY() + 1); // add extra room
+    }
+
+    private void buildPlot(int maxX, int maxY) {
+        TCPMetrics.PlotAssemblyEvent event = TCPMetrics.begin(new TCPMetrics.PlotAssemblyEvent());
+        int gridDensity = gridDensity();
+
+        plot.clearSeries(); // added again in the order they would have in a plot built now
         plot.xAxis(X_AXIS_LABEL, Plot.axisOpts().range(0, maxX).format(AxisFormat.NUMBER));
         plot.yAxis(Y_AXIS_LABEL, Plot.axisOpts().range(0, maxY).format(AxisFormat.NUMBER_INT));
         plot.opts().grids(maxX * gridDensity, maxY);
@@ -102,10 +218,10 @@ class TCPPlot {
         for (int i = 0; i < networkDowns.size(); i++) { // add network downs to plot
             double[] range = networkDowns.get(i);
             plot.series(NETWORK_DOWN_LABEL + " (" + (i + 1) + ")",
-                    Plot.data().xy(range[X_VALUES_INDEX], 0)
-                            .xy(range[X_VALUES_INDEX], maxY)
-                            .xy(range[Y_VALUES_INDEX], maxY)
-                            .xy(range[Y_VALUES_INDEX], 0),
+                    Plot.data().xy(range[0], 0)
+                            .xy(range[0], maxY)
+                            .xy(range[1], maxY)
+                            .xy(range[1], 0),
                     options.get(NETWORK_DOWN_LABEL));
         }
 
@@ -114,25 +230,31 @@ class TCPPlot {
         names.add(names.remove(0)); // used to bring cwnd & segments lost to the end
         names.add(names.remove(0));
 
-        for (String name : names) { // add series to plot
-            int size = data.get(name).size();
-            double[] xValues = new double[size], yValues = new double[size], value;
-
-            for (int i = 0; i < size; i++) { // extract values
-                value = data.get(name).get(i);
-                xValues[i] = value[X_VALUES_INDEX];
-                yValues[i] = value[Y_VALUES_INDEX];
-            }
-
-            plot.series(name, Plot.data().xy(xValues, yValues), options.get(name));
+        long points = 0;
+        for (String name : names) { // add series to plot, sharing the columns
+            plot.series(name, data.get(name), options.get(name));
+            points += data.get(name).size();
         }
 
-        JFrame f = new JFrame(TITLE); // show plot in a frame
-        f.add(new JLabel(new ImageIcon(plot.getImage())));
-        f.setResizable(false);
-        f.pack();
-        f.setLocationRelativeTo(null);
-        f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        f.setVisible(true);
+        TCPMetrics.end(event, points);
+        TCPMetrics.count(TCPMetrics.Counter.POINTS_PLOTTED, points);
+    }
+
+    private static Map<String, DataSeriesOptions> seriesOptions() { // graphic options for each series
+        return Map.ofEntries(
+                Map.entry(CWND_LABEL,
+                        Plot.seriesOpts().line(Line.NONE).color(Color.BLACK).marker(Plot.Marker.CIRCLE)
+                                .markerColor(Color.BLACK)),
+                Map.entry(SSTHRESH_LABEL, Plot.seriesOpts().color(Color.blue)),
+                Map.entry(RCVWND_LABEL, Plot.seriesOpts().color(Color.GREEN)),
+                Map.entry(NETWORK_DOWN_LABEL,
+                        Plot.seriesOpts().color(Color.WHITE).areaColor(TRANSPARENT_LIGHT_BLUE)
+                                .line(Line.DASHED).levelOfDetail(false)), // edges always exact
+                Map.entry(SEGMENTS_LOST_LABEL,
+                        Plot.seriesOpts().line(Line.NONE).color(Color.RED).marker(Plot.Marker.X)
+                                .markerColor(Color.RED).levelOfDetail(false)), // every loss is drawn
+                Map.entry(CONNECTION_TIMED_OUT_LABEL,
+                        Plot.seriesOpts().line(Line.NONE).color(Color.RED).marker(Plot.Marker.DOUBLE_LINE)
+                                .markerColor(Color.BLACK).levelOfDetail(false)));
     }
-}
\ No newline at end of file
+}
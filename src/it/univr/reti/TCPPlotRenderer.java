@@ -0,0 +1,65 @@
+package it.univr.reti;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates and saves the plots of many {@link TCPSimulator}s on a fixed
+ * number of threads, without a display (it also works with
+ * -Djava.awt.headless=true). At most a few plots per thread wait in the
+ * queue: when it is full, the caller renders the plot itself, so memory stays
+ * bounded however many plots are submitted.
+ */
+public class TCPPlotRenderer implements AutoCloseable {
+
+    public static final String DEFAULT_FORMAT = "png";
+    private static final int QUEUED_PER_THREAD = 4; // plots waiting for each thread before the caller renders them
+
+    private final String format;
+    private final ThreadPoolExecutor executor;
+
+    public TCPPlotRenderer(int threads) {
+        this(threads, DEFAULT_FORMAT);
+    }
+
+    public TCPPlotRenderer(int threads, String format) throws IllegalArgumentException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Invalid number of threads provided");
+        }
+        if (!Plot.canSave(format)) {
+            throw new IllegalArgumentException("Invalid image format provided");
+        }
+
+        this.format = format;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUED_PER_THREAD), r -> {
+                    Thread thread = new Thread(r, "plot-renderer");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public Future<TCPResult> render(TCPSimulator simulator, String fileName) { // simulator must not be run elsewhere
+        return executor.submit(() -> simulator.savePlot(fileName, format));
+    }
+
+    @Override
+    public void close() { // waits for the plots already submitted
+        executor.shutdown();
+
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
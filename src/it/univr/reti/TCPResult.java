@@ -0,0 +1,38 @@
+package it.univr.reti;
+
+public final class TCPResult {
+
+    private final double completionTime; // in sec, when the transmission ended (or the connection was closed)
+    private final int rounds; // rounds of transmission, lost ones included
+    private final int losses; // times segments were lost
+    private final boolean timedOut; // true if maximum rto was reached
+
+    public TCPResult(double completionTime, int rounds, int losses, boolean timedOut) {
+        this.completionTime = completionTime;
+        this.rounds = rounds;
+        this.losses = losses;
+        this.timedOut = timedOut;
+    }
+
+    public double getCompletionTime() {
+        return completionTime;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public int getLosses() {
+        return losses;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    @Override
+    public String toString() {
+        return "TCPResult [completionTime=" + completionTime + ", rounds=" + rounds + ", losses=" + losses
+                + ", timedOut=" + timedOut + "]";
+    }
+}
@@ -0,0 +1,421 @@
+package it.univr.reti;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Results of sweeps and Monte Carlo runs too many to be kept on the heap,
+ * written to a memory-mapped file instead: a record of fixed layout per run
+ * (parameters, result, goodput), at the index of the run, so the run can be
+ * found without an index and skipped when the sweep is run again after a
+ * restart (by the same sweep or scenario only, told apart by a fingerprint
+ * of its parameters in the header). Records are read where they are, through a {@link Record} moved
+ * from one to the other by scans, without copying them. Traces, if kept, go
+ * to a second file next to the first one ("...traces"), appended as they
+ * come.
+ */
+public final class TCPResultStore implements Closeable {
+
+    private static final int MAGIC = 0x54435052; // TCPR, first int of the file
+    private static final int VERSION = 2; // 2: remaining data of traces kept as the bits of its long
+    private static final int HEADER_BYTES = 64; // magic, version, record bytes, traces or not, capacity,
+                                                // fingerprint, then unused
+    private static final int FINGERPRINT = 24; // long, offset in the header, 0 until the first run
+    private static final int CHUNK_RECORDS = 1 << 24; // records per mapping, as a mapping holds less than 2 GB
+    private static final String TRACES = ".traces";
+
+    // RECORD LAYOUT, offsets in bytes
+    private static final int MSS = 0; // int
+    private static final int SSTHRESH = 4; // int
+    private static final int DATA = 8; // long, in bytes
+    private static final int RTT = 16; // double
+    private static final int RCVWNDS = 24; // int, index of the schedule in the sweep, -1 if none
+    private static final int NETWORK_DOWNS = 28; // int, same
+    private static final int COMPLETION_TIME = 32; // double
+    private static final int GOODPUT = 40; // double, NaN if not known
+    private static final int ROUNDS = 48; // int
+    private static final int LOSSES = 52; // int
+    private static final int FLAGS = 56; // int, written last (then 4 bytes unused, to align the next one)
+    private static final int TRACE = 64; // long, offset in the traces file, -1 if none
+    private static final int RECORD_BYTES = 72;
+
+    // FLAGS
+    private static final int STORED = 1;
+    private static final int VALID = 2; // the run was simulated, not rejected
+    private static final int TIMED_OUT = 4;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FileChannel traces; // null if traces are not kept
+    private final long capacity; // records
+    private final MappedByteBuffer[] chunks;
+    private long tracesSize; // bytes, where the next trace goes
+    private long fingerprint; // of the parameters of the runs stored, 0 if none was run yet
+
+    private TCPResultStore(Path path, FileChannel channel, FileChannel traces, long capacity, long fingerprint)
+            throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.traces = traces;
+        this.capacity = capacity;
+        this.fingerprint = fingerprint;
+        this.chunks = new MappedByteBuffer[(int) ((capacity + CHUNK_RECORDS - 1) / CHUNK_RECORDS)];
+        for (int i = 0; i < chunks.length; i++) {
+            long records = Math.min(CHUNK_RECORDS, capacity - (long) i * CHUNK_RECORDS);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_BYTES + (long) i * CHUNK_RECORDS * RECORD_BYTES, records * RECORD_BYTES);
+        }
+        this.tracesSize = traces != null ? traces.size() : 0;
+    }
+
+    public static TCPResultStore create(Path path, long capacity, boolean keepTraces)
+            throws IllegalArgumentException, IOException {
+        // a new file with room for capacity records, none stored yet (the file is sparse where the OS allows it)
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity provided (must be > 0)");
+        }
+        if (capacity > (long) Integer.MAX_VALUE * CHUNK_RECORDS) {
+            throw new IllegalArgumentException("Invalid capacity provided (must be <= "
+                    + (long) Integer.MAX_VALUE * CHUNK_RECORDS + ")");
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.SPARSE);
+        FileChannel traces = null;
+        try {
+            channel.write(ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES)
+                    .putInt(keepTraces ? 1 : 0).putLong(capacity).clear(), 0);
+            if (keepTraces) {
+                traces = FileChannel.open(tracesPath(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            return new TCPResultStore(path, channel, traces, capacity, 0);
+        } catch (IOException | RuntimeException e) {
+            close(channel, traces);
+            throw e;
+        }
+    }
+
+    public static TCPResultStore open(Path path) throws IllegalArgumentException, IOException {
+        // a store created before, with the records stored so far: runs can go on where they stopped
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel traces = null;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Invalid store provided (" + path + ")");
+            }
+            if (header.getInt() != VERSION || header.getInt() != RECORD_BYTES) {
+                throw new IllegalArgumentException("Invalid store provided (" + path + ", other version)");
+            }
+            boolean keepTraces = header.getInt() != 0;
+            long capacity = header.getLong();
+            long fingerprint = header.getLong();
+            if (capacity <= 0 || channel.size() < HEADER_BYTES + capacity * RECORD_BYTES) {
+                throw new IllegalArgumentException("Invalid store provided (" + path + ", truncated)");
+            }
+
+            if (keepTraces) {
+                traces = FileChannel.open(tracesPath(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            return new TCPResultStore(path, channel, traces, capacity, fingerprint);
+        } catch (IOException | RuntimeException e) {
+            close(channel, traces);
+            throw e;
+        }
+    }
+
+    synchronized void claim(String parameters) throws IllegalArgumentException {
+        // by the sweep or scenario with these parameters: the first one to run owns it, the others are refused,
+        // as records at the same index would be of other runs
+        long claimed = fingerprint(parameters);
+        if (fingerprint == 0) {
+            try {
+                channel.write(ByteBuffer.allocate(Long.BYTES).putLong(claimed).flip(), FINGERPRINT);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            fingerprint = claimed;
+        } else if (fingerprint != claimed) {
+            throw new IllegalArgumentException("Invalid store provided (" + path + ", written by other runs)");
+        }
+    }
+
+    private static long fingerprint(String parameters) { // never 0, which is left for stores not run yet
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(parameters.getBytes(StandardCharsets.UTF_8));
+            long fingerprint = ByteBuffer.wrap(hash).getLong();
+            return fingerprint != 0 ? fingerprint : 1;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-256
+        }
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public boolean keepsTraces() {
+        return traces != null;
+    }
+
+    public boolean isStored(long index) {
+        return (flags(index) & STORED) != 0;
+    }
+
+    public Record get(long index) throws IllegalArgumentException { // a record of its own, moved by nobody else
+        if (!isStored(index)) {
+            throw new IllegalArgumentException("Invalid index provided (" + index + " is not stored)");
+        }
+
+        Record record = new Record();
+        record.buffer = chunks[(int) (index / CHUNK_RECORDS)];
+        record.offset = (int) (index % CHUNK_RECORDS) * RECORD_BYTES;
+        record.index = index;
+        return record;
+    }
+
+    public long scan(Predicate<Record> filter, Consumer<Record> action) {
+        // stored records matching the filter, in index order, through the same Record: copy what is kept
+        Record record = new Record();
+        long matched = 0;
+
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            ByteBuffer buffer = chunks[chunk];
+            int records = buffer.capacity() / RECORD_BYTES;
+            for (int i = 0; i < records; i++) {
+                if ((buffer.getInt(i * RECORD_BYTES + FLAGS) & STORED) == 0) {
+                    continue;
+                }
+
+                record.buffer = buffer;
+                record.offset = i * RECORD_BYTES;
+                record.index = (long) chunk * CHUNK_RECORDS + i;
+                if (filter.test(record)) {
+                    matched++;
+                    action.accept(record);
+                }
+            }
+        }
+
+        return matched;
+    }
+
+    public long count(Predicate<Record> filter) {
+        return scan(filter, record -> {
+        });
+    }
+
+    public long size() { // records stored
+        return count(record -> true);
+    }
+
+    public TCPTrace trace(long index) throws IllegalArgumentException { // null if the run has none
+        long offset = get(index).getTraceOffset();
+        if (offset < 0) {
+            return null;
+        }
+
+        try {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            traces.read(length, offset);
+            ByteBuffer in = traces.map(FileChannel.MapMode.READ_ONLY, offset + 4, length.flip().getInt());
+            return TCPTrace.readFrom(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void put(long index, int mssBytes, long dataBytes, int ssthresh, double rtt, int rcvwndsIndex,
+            int networkDownsIndex, TCPResult result, double goodput, TCPTrace trace) {
+        // result null for rejected runs; records are put by many threads at once, each at its own index
+        if (index < 0 || index >= capacity) {
+            throw new IllegalArgumentException("Invalid index provided (" + index + " out of " + capacity + ")");
+        }
+
+        long traceOffset = trace != null && traces != null ? append(trace) : -1;
+        ByteBuffer buffer = chunks[(int) (index / CHUNK_RECORDS)];
+        int offset = (int) (index % CHUNK_RECORDS) * RECORD_BYTES;
+
+        buffer.putInt(offset + MSS, mssBytes)
+                .putInt(offset + SSTHRESH, ssthresh)
+                .putLong(offset + DATA, dataBytes)
+                .putDouble(offset + RTT, rtt)
+                .putInt(offset + RCVWNDS, rcvwndsIndex)
+                .putInt(offset + NETWORK_DOWNS, networkDownsIndex)
+                .putDouble(offset + COMPLETION_TIME, result != null ? result.getCompletionTime() : Double.NaN)
+                .putDouble(offset + GOODPUT, goodput)
+                .putInt(offset + ROUNDS, result != null ? result.getRounds() : 0)
+                .putInt(offset + LOSSES, result != null ? result.getLosses() : 0)
+                .putLong(offset + TRACE, traceOffset)
+                .putInt(offset + FLAGS, STORED | (result != null ? VALID : 0)
+                        | (result != null && result.isTimedOut() ? TIMED_OUT : 0));
+    }
+
+    private long append(TCPTrace trace) { // a trace after the others, its length first
+        ByteBuffer out = ByteBuffer.allocate(4 + (int) trace.sizeBytes());
+        out.putInt((int) trace.sizeBytes());
+        trace.writeTo(out);
+        out.flip();
+
+        long offset;
+        synchronized (this) { // only the room is taken in turn, traces are written at once
+            offset = tracesSize;
+            tracesSize += out.remaining();
+        }
+
+        try {
+            for (long position = offset; out.hasRemaining(); ) {
+                position += traces.write(out, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return offset;
+    }
+
+    private int flags(long index) {
+        if (index < 0 || index >= capacity) {
+            throw new IllegalArgumentException("Invalid index provided (" + index + " out of " + capacity + ")");
+        }
+
+        return chunks[(int) (index / CHUNK_RECORDS)].getInt((int) (index % CHUNK_RECORDS) * RECORD_BYTES + FLAGS);
+    }
+
+    public void flush() throws IOException { // records and traces on disk, not only in the page cache
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        if (traces != null) {
+            traces.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            close(channel, traces); // mappings stay valid until they are collected
+        }
+    }
+
+    private static Path tracesPath(Path path) {
+        return path.resolveSibling(path.getFileName() + TRACES);
+    }
+
+    private static void close(FileChannel channel, FileChannel traces) throws IOException {
+        try {
+            channel.close();
+        } finally {
+            if (traces != null) {
+                traces.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TCPResultStore [path=" + path + ", capacity=" + capacity + ", traces=" + keepsTraces() + "]";
+    }
+
+    /**
+     * A record where it is in the file, read field by field when asked. The
+     * one passed by a scan moves on to the next record after each call.
+     */
+    public static final class Record {
+
+        private ByteBuffer buffer;
+        private int offset;
+        private long index;
+
+        private Record() {
+        }
+
+        public long getIndex() { // of the run in the sweep, or of the replication
+            return index;
+        }
+
+        public int getMssBytes() {
+            return buffer.getInt(offset + MSS);
+        }
+
+        public long getDataBytes() {
+            return buffer.getLong(offset + DATA);
+        }
+
+        public int getSsthresh() {
+            return buffer.getInt(offset + SSTHRESH);
+        }
+
+        public double getRtt() {
+            return buffer.getDouble(offset + RTT);
+        }
+
+        public int getRcvwndsIndex() {
+            return buffer.getInt(offset + RCVWNDS);
+        }
+
+        public int getNetworkDownsIndex() {
+            return buffer.getInt(offset + NETWORK_DOWNS);
+        }
+
+        public boolean isValid() {
+            return (buffer.getInt(offset + FLAGS) & VALID) != 0;
+        }
+
+        public boolean isTimedOut() {
+            return (buffer.getInt(offset + FLAGS) & TIMED_OUT) != 0;
+        }
+
+        public double getCompletionTime() { // NaN if not valid
+            return buffer.getDouble(offset + COMPLETION_TIME);
+        }
+
+        public int getRounds() {
+            return buffer.getInt(offset + ROUNDS);
+        }
+
+        public int getLosses() {
+            return buffer.getInt(offset + LOSSES);
+        }
+
+        public double getGoodput() { // in bytes per sec, NaN if not known
+            return buffer.getDouble(offset + GOODPUT);
+        }
+
+        public boolean hasTrace() {
+            return getTraceOffset() >= 0;
+        }
+
+        private long getTraceOffset() {
+            return buffer.getLong(offset + TRACE);
+        }
+
+        public TCPResult getResult() { // a copy, null if not valid
+            return isValid() ? new TCPResult(getCompletionTime(), getRounds(), getLosses(), isTimedOut()) : null;
+        }
+
+        @Override
+        public String toString() {
+            return "Record [index=" + index + ", mss=" + getMssBytes() + ", data=" + getDataBytes() + ", ssthresh="
+                    + getSsthresh() + ", rtt=" + getRtt() + ", rcvwnds=" + getRcvwndsIndex() + ", networkDowns="
+                    + getNetworkDownsIndex() + ", " + (isValid() ? getResult() + ", goodput=" + getGoodput()
+                    : "invalid") + "]";
+        }
+    }
+}
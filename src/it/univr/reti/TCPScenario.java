@@ -0,0 +1,240 @@
+package it.univr.reti;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Data of an exercise, as passed to {@link TCPSimulator}, read from a line
+ * of a scenario file. As a JSON object (id, ssthresh, rto and networkDowns
+ * may be left out):
+ *
+ * <pre>
+ * {"id": "q1", "mss": 900, "data": 76500, "ssthresh": "INITIAL_RCVWND", "rtt": 0.5, "rto": "DOUBLE_RTT",
+ *  "rcvwnds": [[0, 14400], [0.5, 10800]], "networkDowns": [[3.5, 5.5]]}
+ * </pre>
+ *
+ * As CSV, with the columns mss, data, ssthresh, rtt, rto, rcvwnds,
+ * networkDowns and id (optional), pairs of schedules being separated by ';':
+ *
+ * <pre>
+ * 900,76500,INITIAL_RCVWND,0.5,DOUBLE_RTT,0 14400;0.5 10800,3.5 5.5,q1
+ * </pre>
+ */
+public final class TCPScenario {
+
+    private static final int CSV_COLUMNS = 7; // id excluded
+
+    private final String id; // null if not given
+    private final int mssBytes;
+    private final long dataBytes;
+    private final int ssthresh; // INITIAL_RCVWND or HALF_INITIAL_RCVWND
+    private final double rtt;
+    private final int rto; // DOUBLE_RTT
+    private final double[][] rcvwnds; // {timestamp, value}
+    private final double[][] networkDowns; // {start, finish}
+
+    public TCPScenario(String id, int mssBytes, long dataBytes, int ssthresh, double[][] networkDowns,
+            double[][] rcvwnds, double rtt, int rto) {
+        this.id = id;
+        this.mssBytes = mssBytes;
+        this.dataBytes = dataBytes;
+        this.ssthresh = ssthresh;
+        this.networkDowns = networkDowns == null ? TCPSimulator.NO_NETWORK_DOWNS : networkDowns;
+        this.rcvwnds = rcvwnds;
+        this.rtt = rtt;
+        this.rto = rto;
+    }
+
+    public TCPSimulator simulator() throws IllegalArgumentException { // a new one every time, as they run once
+        return new TCPSimulator(mssBytes, dataBytes, ssthresh, networkDowns, rcvwnds, rtt, rto);
+    }
+
+    public static TCPScenario fromJson(String json) throws IllegalArgumentException {
+        Map<String, Object> object = Json.parseObject(json);
+
+        Object id = object.get("id");
+        return new TCPScenario(id == null ? null : id.toString(),
+                (int) integer(number(object, "mss", null), "mss", Integer.MIN_VALUE, Integer.MAX_VALUE),
+                integer(number(object, "data", null), "data", Long.MIN_VALUE, Long.MAX_VALUE),
+                constant(object.get("ssthresh"), "ssthresh", TCPSimulator.INITIAL_RCVWND),
+                schedule(object.get("networkDowns"), "networkDowns"),
+                schedule(object.get("rcvwnds"), "rcvwnds"),
+                number(object, "rtt", null),
+                constant(object.get("rto"), "rto", TCPSimulator.DOUBLE_RTT));
+    }
+
+    public static TCPScenario fromCsv(String line) throws IllegalArgumentException {
+        String[] columns = line.split(",", -1);
+        if (columns.length != CSV_COLUMNS && columns.length != CSV_COLUMNS + 1) {
+            throw new IllegalArgumentException("Invalid number of columns provided (" + columns.length + ")");
+        }
+
+        try {
+            return new TCPScenario(columns.length > CSV_COLUMNS ? columns[CSV_COLUMNS].trim() : null,
+                    Integer.parseInt(columns[0].trim()),
+                    Long.parseLong(columns[1].trim()),
+                    constant(columns[2].trim(), "ssthresh", TCPSimulator.INITIAL_RCVWND),
+                    schedule(columns[6]),
+                    schedule(columns[5]),
+                    Double.parseDouble(columns[3].trim()),
+                    constant(columns[4].trim(), "rto", TCPSimulator.DOUBLE_RTT));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number provided (" + e.getMessage() + ")");
+        }
+    }
+
+    public String key() { // same for scenarios simulated the same way: id left out, data in whole segments
+        StringBuilder s = new StringBuilder().append(mssBytes)
+                .append(',').append(mssBytes > 0 ? dataBytes / mssBytes : dataBytes) // invalid ones fail when simulated
+                .append(',').append(ssthresh)
+                .append(',').append(canonical(rtt))
+                .append(',').append(rto)
+                .append(',');
+        appendSchedule(s, rcvwnds).append(',');
+        return appendSchedule(s, networkDowns).toString();
+    }
+
+    private static StringBuilder appendSchedule(StringBuilder s, double[][] schedule) { // a b;c d, as in CSV
+        if (schedule != null) {
+            for (int i = 0; i < schedule.length; i++) {
+                if (i > 0) {
+                    s.append(';');
+                }
+                s.append(canonical(schedule[i][0])).append(' ').append(canonical(schedule[i][1]));
+            }
+        }
+        return s;
+    }
+
+    private static String canonical(double value) { // 2 and 2.0, 0 and -0 written the same
+        return value == (long) value ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    static boolean isCsvHeader(String line) { // first column is named, not a number
+        return line.regionMatches(true, 0, "mss", 0, 3);
+    }
+
+    private static double number(Map<String, Object> object, String key, Double defaultValue) {
+        Object value = object.get(key);
+        if (value == null && defaultValue != null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException("Invalid " + key + " provided (number expected)");
+        }
+        return (Double) value;
+    }
+
+    private static long integer(double value, String key, long min, long max) { // not narrowed, but checked
+        if (value != Math.rint(value)) { // NaN too
+            throw new IllegalArgumentException("Invalid " + key + " provided (integer expected)");
+        }
+        if (!(value >= min && value < max + 1.0)) { // max + 1 is exact, max may not be
+            throw new IllegalArgumentException("Invalid " + key + " provided (out of range)");
+        }
+        return (long) value;
+    }
+
+    private static int constant(Object value, String key, int defaultValue) { // by name, as in TCPSimulator, or value
+        if (value == null || "".equals(value)) {
+            return defaultValue;
+        }
+        if (value instanceof Double) {
+            return (int) integer((Double) value, key, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        return switch (value.toString()) {
+            case "INITIAL_RCVWND" ->
+                TCPSimulator.INITIAL_RCVWND;
+            case "HALF_INITIAL_RCVWND" ->
+                TCPSimulator.HALF_INITIAL_RCVWND;
+            case "DOUBLE_RTT" ->
+                TCPSimulator.DOUBLE_RTT;
+            default -> {
+                try {
+                    yield Integer.parseInt(value.toString());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid " + key + " provided (" + e.getMessage() + ")");
+                }
+            }
+        };
+    }
+
+    private static double[][] schedule(Object value, String key) { // [[a, b], ...]
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Invalid " + key + " provided (array expected)");
+        }
+
+        List<?> pairs = (List<?>) value;
+        double[][] schedule = new double[pairs.size()][];
+        for (int i = 0; i < schedule.length; i++) {
+            if (!(pairs.get(i) instanceof List) || ((List<?>) pairs.get(i)).size() != 2) {
+                throw new IllegalArgumentException("Invalid " + key + " provided (pairs expected)");
+            }
+            List<?> pair = (List<?>) pairs.get(i);
+            if (!(pair.get(0) instanceof Double) || !(pair.get(1) instanceof Double)) {
+                throw new IllegalArgumentException("Invalid " + key + " provided (numbers expected)");
+            }
+            schedule[i] = new double[]{(Double) pair.get(0), (Double) pair.get(1)};
+        }
+        return schedule;
+    }
+
+    private static double[][] schedule(String column) { // a b;c d;...
+        if (column.isBlank()) {
+            return null;
+        }
+
+        String[] pairs = column.trim().split(";");
+        double[][] schedule = new double[pairs.length][];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] pair = pairs[i].trim().split("\\s+");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid schedule provided (pairs expected)");
+            }
+            schedule[i] = new double[]{Double.parseDouble(pair[0]), Double.parseDouble(pair[1])};
+        }
+        return schedule;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getMssBytes() {
+        return mssBytes;
+    }
+
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    public int getSsthresh() {
+        return ssthresh;
+    }
+
+    public double getRtt() {
+        return rtt;
+    }
+
+    public int getRto() {
+        return rto;
+    }
+
+    public double[][] getRcvwnds() {
+        return rcvwnds;
+    }
+
+    public double[][] getNetworkDowns() {
+        return networkDowns;
+    }
+
+    @Override
+    public String toString() {
+        return "TCPScenario [id=" + id + ", mss=" + mssBytes + ", data=" + dataBytes + ", ssthresh=" + ssthresh
+                + ", rtt=" + rtt + ", rto=" + rto + ", rcvwnds=" + (rcvwnds == null ? 0 : rcvwnds.length)
+                + ", networkDowns=" + networkDowns.length + "]";
+    }
+}
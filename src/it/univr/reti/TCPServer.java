@@ -0,0 +1,383 @@
+package it.univr.reti;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Simulations over HTTP, on the server of the JDK. A scenario is posted as a
+ * JSON object (as in {@link TCPScenario}) to /simulate, and the answer is its
+ * trace as JSON, or its plot with ?format=png, svg, ... Requests are handled
+ * on virtual threads where the JVM has them (a thread each, so thousands of
+ * them can wait at once), on a fixed pool of threads otherwise. Simulating and
+ * drawing happen on their own pool, a thread per processor with a bounded
+ * queue: when it is full, requests get 503 and a Retry-After at once, instead
+ * of piling up. Scenarios are bounded in size and in time, since traces have
+ * an event per round. Results are cached, so scenarios asked again are not
+ * simulated again. GET /stats tells the statistics of the cache.
+ */
+public class TCPServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 8080;
+    private static final int BACKLOG = 4096; // connections waiting to be accepted
+    private static final int FALLBACK_THREADS = 256; // request threads without virtual threads
+    private static final int QUEUED_PER_THREAD = 4; // simulations waiting for each thread before 503
+    private static final int MAX_BODY_BYTES = 1 << 20;
+    // rounds are bounded too: each round not lost sends a segment at least, and 3 lost in a row end the run
+    private static final long MAX_SEGMENTS = 100_000;
+    private static final long TIME_LIMIT_MILLIS = 30_000; // per simulation, then it is cancelled
+    private static final String RETRY_AFTER = "1"; // in sec
+    private static final String JSON = "json";
+
+    private InetAddress address = InetAddress.getLoopbackAddress();
+    private int port = DEFAULT_PORT;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private TCPCache cache;
+
+    private HttpServer server;
+    private ExecutorService requests;
+    private ThreadPoolExecutor simulations;
+
+    public static TCPServer server() {
+        return new TCPServer();
+    }
+
+    private TCPServer() {
+    }
+
+    public TCPServer address(InetAddress address) { // loopback by default
+        this.address = address;
+        return this;
+    }
+
+    public TCPServer port(int port) { // 0 for any free one
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port provided");
+        }
+
+        this.port = port;
+        return this;
+    }
+
+    public TCPServer threads(int threads) { // simulating and drawing
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Invalid number of threads provided");
+        }
+
+        this.threads = threads;
+        return this;
+    }
+
+    public TCPServer cache(TCPCache cache) { // one in memory only, with its default size, if not given
+        this.cache = cache;
+        return this;
+    }
+
+    public TCPServer start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Server already started");
+        }
+        if (cache == null) {
+            cache = TCPCache.cache();
+        }
+
+        simulations = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUED_PER_THREAD), r -> {
+                    Thread thread = new Thread(r, "server-simulator");
+                    thread.setDaemon(true);
+                    return thread;
+                }); // rejects when full, answered with 503
+        requests = requestExecutor();
+
+        server = HttpServer.create(new InetSocketAddress(address, port), BACKLOG);
+        server.setExecutor(requests);
+        server.createContext("/simulate", this::simulate);
+        server.createContext("/stats", this::stats);
+        server.start();
+        return this;
+    }
+
+    public int getPort() { // the actual one, once started
+        return server == null ? port : server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() { // requests being handled are given a second to finish
+        if (server != null) {
+            server.stop(1);
+            requests.shutdownNow();
+            simulations.shutdownNow();
+            server = null;
+        }
+    }
+
+    private static ExecutorService requestExecutor() {
+        try { // from Java 21 on, looked up so that the code still builds and runs on older ones
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newFixedThreadPool(FALLBACK_THREADS, r -> {
+                Thread thread = new Thread(r, "server-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // HANDLERS
+    private void simulate(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                error(exchange, 405, "POST a scenario");
+                return;
+            }
+
+            String format = parameter(exchange.getRequestURI().getRawQuery(), "format", JSON).toLowerCase();
+            if (!JSON.equals(format) && !Plot.canSave(format)) {
+                error(exchange, 400, "Unsupported format " + format);
+                return;
+            }
+
+            byte[] body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                error(exchange, 413, "Scenario too large (max " + MAX_BODY_BYTES + " bytes)");
+                return;
+            }
+
+            Future<Object> result;
+            try {
+                TCPScenario scenario = TCPScenario.fromJson(new String(body, StandardCharsets.UTF_8));
+                if (scenario.getMssBytes() > 0 && scenario.getDataBytes() / scenario.getMssBytes() > MAX_SEGMENTS) {
+                    throw new IllegalArgumentException("Invalid data provided (max " + MAX_SEGMENTS + " segments)");
+                }
+                result = simulations.submit(() -> JSON.equals(format) ? cache.trace(scenario)
+                        : cache.image(scenario, format));
+            } catch (IllegalArgumentException e) {
+                error(exchange, 400, e.getMessage());
+                return;
+            } catch (RejectedExecutionException e) { // saturated, or closing
+                exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER);
+                error(exchange, 503, "Too many simulations in progress, retry later");
+                return;
+            }
+
+            Object value;
+            try {
+                value = result.get(TIME_LIMIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) { // server stopped
+                result.cancel(true);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (TimeoutException e) { // stopped, so that its thread is free for the others
+                result.cancel(true);
+                error(exchange, 503, "Simulation took longer than " + TIME_LIMIT_MILLIS + " ms");
+                return;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IllegalArgumentException) {
+                    error(exchange, 400, e.getCause().getMessage());
+                    return;
+                }
+                error(exchange, 500, String.valueOf(e.getCause()));
+                return;
+            }
+
+            if (value instanceof TCPTrace trace) {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, 0); // streamed, as traces of long simulations are large
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(),
+                        StandardCharsets.UTF_8))) {
+                    writeJson(trace, out);
+                }
+            } else {
+                byte[] image = (byte[]) value;
+                exchange.getResponseHeaders().set("Content-Type", contentType(format));
+                exchange.sendResponseHeaders(200, image.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(image);
+                }
+            }
+        }
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            TCPCache.Stats stats = cache.stats();
+            String json = "{\"hits\":" + stats.getHits()
+                    + ",\"diskHits\":" + stats.getDiskHits()
+                    + ",\"misses\":" + stats.getMisses()
+                    + ",\"evictions\":" + stats.getEvictions()
+                    + ",\"entries\":" + stats.getEntries()
+                    + ",\"bytes\":" + stats.getBytes()
+                    + ",\"queued\":" + simulations.getQueue().size() + "}\n";
+            send(exchange, 200, "application/json", json);
+        }
+    }
+
+    private static void error(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "application/json",
+                Json.quote(new StringBuilder("{\"error\":"), String.valueOf(message)).append("}\n").toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException { // null if longer than MAX_BODY_BYTES
+        byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+        return body.length > MAX_BODY_BYTES ? null : body;
+    }
+
+    private static String parameter(String query, String name, String defaultValue) { // not decoded, no need here
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                if (pair.startsWith(name + "=")) {
+                    return pair.substring(name.length() + 1);
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    private static String contentType(String format) {
+        return switch (format) {
+            case Plot.SVG ->
+                "image/svg+xml";
+            case "jpg" ->
+                "image/jpeg";
+            default ->
+                "image/" + format;
+        };
+    }
+
+    // TRACE AS JSON
+    static void writeJson(TCPTrace trace, Writer out) throws IOException { // {"result": {...}, "events": [...]}
+        TCPResult result = trace.getResult();
+        out.write("{\"result\":{\"completionTime\":" + result.getCompletionTime()
+                + ",\"rounds\":" + result.getRounds()
+                + ",\"losses\":" + result.getLosses()
+                + ",\"timedOut\":" + result.isTimedOut() + "},\"events\":[");
+        try {
+            trace.replay(new JsonWriter(out));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.write("]}\n");
+    }
+
+    private static class JsonWriter implements SimulationListener { // an object per event, named as the arguments
+
+        private final Writer out;
+        private final StringBuilder s = new StringBuilder();
+        private boolean first = true;
+
+        private JsonWriter(Writer out) {
+            this.out = out;
+        }
+
+        private JsonWriter event(String type) {
+            s.setLength(0);
+            s.append(first ? "" : ",").append("{\"type\":\"").append(type).append('"');
+            first = false;
+            return this;
+        }
+
+        private JsonWriter field(String name, double value) {
+            s.append(",\"").append(name).append("\":");
+            if (value == (long) value) {
+                s.append((long) value);
+            } else {
+                s.append(value);
+            }
+            return this;
+        }
+
+        private void write() {
+            s.append('}');
+            try {
+                out.append(s);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void onStart() {
+            event("start").write();
+        }
+
+        @Override
+        public void onNetworkDown(int index, double start, double finish) {
+            event("networkDown").field("index", index).field("start", start).field("finish", finish).write();
+        }
+
+        @Override
+        public void onRound(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd) {
+            event("round").field("time", time).field("remaining", remaining).field("sent", sent)
+                    .field("cwnd", cwnd).field("ssthresh", ssthresh).field("rcvwnd", rcvwnd).write();
+        }
+
+        @Override
+        public void onRcvwndChange(double time, int previousRcvwnd, int rcvwnd) {
+            event("rcvwndChange").field("time", time).field("previousRcvwnd", previousRcvwnd)
+                    .field("rcvwnd", rcvwnd).write();
+        }
+
+        @Override
+        public void onSkippedRounds(int quantum, int rounds, double rtt, double startCwnd, double cwnd,
+                long remaining, int ssthresh, int rcvwnd) {
+            event("skippedRounds").field("quantum", quantum).field("rounds", rounds).field("rtt", rtt)
+                    .field("startCwnd", startCwnd).field("cwnd", cwnd).field("remaining", remaining)
+                    .field("ssthresh", ssthresh).field("rcvwnd", rcvwnd).write();
+        }
+
+        @Override
+        public void onSegmentLoss(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd,
+                double rtoExpiry, int rtoScaleFactor) {
+            event("segmentLoss").field("time", time).field("remaining", remaining).field("sent", sent)
+                    .field("cwnd", cwnd).field("ssthresh", ssthresh).field("rcvwnd", rcvwnd)
+                    .field("rtoExpiry", rtoExpiry).field("rtoScaleFactor", rtoScaleFactor).write();
+        }
+
+        @Override
+        public void onRtoBackoff(double time, int ssthresh, int rcvwnd, int rtoScaleFactor) {
+            event("rtoBackoff").field("time", time).field("ssthresh", ssthresh).field("rcvwnd", rcvwnd)
+                    .field("rtoScaleFactor", rtoScaleFactor).write();
+        }
+
+        @Override
+        public void onTimeout(int quantum, double time, int ssthresh) {
+            event("timeout").field("quantum", quantum).field("time", time).field("ssthresh", ssthresh).write();
+        }
+
+        @Override
+        public void onEnd(double time, double cwnd, int ssthresh, int rcvwnd, boolean timedOut) {
+            event("end").field("time", time).field("cwnd", cwnd).field("ssthresh", ssthresh)
+                    .field("rcvwnd", rcvwnd);
+            s.append(",\"timedOut\":").append(timedOut);
+            write();
+        }
+    }
+}
@@ -1,6 +1,14 @@
 package it.univr.reti;
 
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.text.DecimalFormat;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import javax.swing.SwingUtilities;
 
 public class TCPSimulator {
     // CONSTANTS
@@ -9,25 +17,23 @@ public class TCPSimulator {
     public static int DOUBLE_RTT = 2; // ratio rto / rtt
     public static final double[][] NO_NETWORK_DOWNS = {}; // no network downs
 
-    private static final int MAX_RTO = 8; // maximum rto scale factor
-    private static final int MIN_RTO = 1; // base rto scale factor
-    private static final int MIN_CWND = 1; // base cwnd value
+    static final int MAX_RTO = 8; // maximum rto scale factor
+    static final int MIN_RTO = 1; // base rto scale factor
+    static final int MIN_CWND = 1; // base cwnd value
+    static final int MAX_QUANTA = Integer.MAX_VALUE / 2; // quanta are int, with room for a rto after the last one
     private static final int NO_MORE_DATA = 0; // no more data to send
     private static final int MIN_SSTHRESH = 1; // base ssthresh value
-
-    private static final boolean ADD_CWND = true; // flags used to specify which values to add to the plot
-    private static final boolean ADD_SSTHRESH = true;
-    private static final boolean ADD_RCVWND = true;
-    private static final boolean DO_NOT_ADD_CWND = false;
+    private static final int MAX_REPLAYED_ROUNDS = 1 << 16; // per skip, so that the loop replaying them stays short
 
     // PROBLEM DATA
-    private int data; // in segments
+    private long data; // in segments
     private final int mssBytes; // in bytes
     private int ssthresh; // in segments
     private final double rtt; // in sec
     private final double rto; // times compared to rtt
     private final double[][] networkDowns; // in sec {start, finish}
-    private final int[] rcvwnds; // at position i, rcvwnd told at time i; assumes rcvwnd cannot be 0
+    private final NetworkDownIndex networkDownIndex; // quanta in which segments are lost
+    private final RcvwndSchedule rcvwnds; // rcvwnds told and when (in quanta); assumes rcvwnd cannot be 0
 
     // AUXILIARY VARIABLES
     private double cwnd = MIN_CWND; // in segments
@@ -36,234 +42,301 @@ public class TCPSimulator {
     private int sent; // actual segments sent each time
     private int rtoScaleFactor = MIN_RTO; // multiplicative factor of RTO
     private int time = 0; // quantum of time
-
-    private final TCPPlot plot;
-
-    public TCPSimulator(int mssBytes, int dataBytes, int ssthresh, double[][] networkDowns, double[][] rcvwnds,
+    private int rounds = 0; // rounds of transmission (including the lost ones)
+    private int losses = 0; // times segments were lost
+    private int networkDownChecks = 0; // counted here and told to TCPMetrics once, at the end
+    private SimulationListener listener = SimulationListener.NONE; // told what happens, round by round
+    private boolean fastForward = false; // if true, rounds in which nothing happens are skipped in bulk
+    private LossModel.Process randomLoss; // null if rounds are lost only in network downs
+
+    // EVENTS
+    private final PriorityQueue<Event> events = new PriorityQueue<>(); // pending events, earliest first
+    private final Event transmission = new Event(); // next round (or retransmission), rescheduled every time
+    private final Event outage = new Event(); // next start or end of a network down, rescheduled every time
+    private final Event rcvwndChange = new Event(); // next rcvwnd told, rescheduled every time
+    private int nextOutage = 0; // index of the next network down window to schedule
+    private int nextRcvwndChange = 0; // index of the next rcvwnd change to schedule
+
+    public TCPSimulator(int mssBytes, long dataBytes, int ssthresh, double[][] networkDowns, double[][] rcvwnds,
             double rtt, int rto) throws IllegalArgumentException {
-        verify(mssBytes, dataBytes, ssthresh, networkDowns, rcvwnds, rtt, rto);
+        verify(mssBytes, dataBytes, ssthresh, rcvwnds, rtt, rto);
 
         this.mssBytes = mssBytes;
         this.data = dataBytes / mssBytes;
         this.networkDowns = networkDowns == null ? NO_NETWORK_DOWNS : networkDowns;
         this.rtt = rtt;
-        this.rcvwnds = buildRcvwnds(rcvwnds);
-        this.ssthresh = (int) (this.rcvwnds[0] / ssthresh / mssBytes);
-        this.rto = rto;
-        this.nextRcvwnd = getNextRcvwnd();
 
-        this.plot = new TCPPlot();
-    }
+        // schedules are checked while compiled, every violation being told at once
+        ScheduleViolations violations = new ScheduleViolations();
+        this.rcvwnds = new RcvwndSchedule(rcvwnds, rtt, mssBytes, violations);
+        this.networkDownIndex = new NetworkDownIndex(this.networkDowns, rtt, violations);
+        violations.throwIfAny();
 
-    public void simulate() {
-        printStartOfTransmission();
-        addNetworkDownsToPlot();
+        if (data / (this.rcvwnds.maxValue() / mssBytes) >= MAX_QUANTA) { // not even with the largest rcvwnd
+            throw new IllegalArgumentException("Invalid data provided (more than " + MAX_QUANTA + " rounds needed)");
+        }
 
-        while (data >= NO_MORE_DATA) {
-            sent = Math.min((int) cwnd, data); // number of segments to be sent each time
+        this.ssthresh = (int) (this.rcvwnds.valueAt(0) / ssthresh / mssBytes);
+        this.rto = rto;
 
-            if (!isNetworkDown()) {
-                addPointsToPlot(ADD_CWND, ADD_SSTHRESH, ADD_RCVWND);
+        scheduleNetworkDowns();
+        scheduleRcvwnds();
+        this.nextRcvwnd = getNextRcvwnd();
+    }
 
-                rtoScaleFactor = MIN_RTO; // if network is not down, restore factor to 1
+    public TCPSimulator fastForward(boolean enabled) { // skipped rounds are printed as one line and plotted on demand
+        this.fastForward = enabled;
+        return this;
+    }
 
-                if (data == NO_MORE_DATA) { // check for final print (when ACK are received and ssthresh is set)
-                    printStatus();
-                    break;
-                }
+    public TCPSimulator randomLoss(LossModel model, long seed) { // same seed, same rounds lost
+        return randomLoss(model, new SplittableRandom(seed));
+    }
 
-                data -= sent; // data being sent
+    public TCPSimulator randomLoss(LossModel model, SplittableRandom random) { // rounds are not fast forwarded then
+        this.randomLoss = model.start(random);
+        return this;
+    }
 
-                printStatus();
+    public void simulate() { // prints every round and shows the plot
+        TCPPlot plot = new TCPPlot(rtt);
+        run(SimulationListener.all(new ConsoleListener(), plot));
+        plot.showPlot();
+    }
 
-                currentRcvwnd = nextRcvwnd; // rcvwnd at the beginning of the iteration
-                nextRcvwnd = getNextRcvwnd(); // calculation of rcvwnd for the next iteration
+    public void simulateLive() { // same as simulate(), but the plot is shown and updated while simulating
+        TCPLivePlot plot = new TCPLivePlot();
+        SwingUtilities.invokeLater(plot::showFrame);
+        plot.start(this, new ConsoleListener());
+    }
 
-                if (currentRcvwnd != nextRcvwnd) { // if rcvwnd changed, add the old to plot to have straight lines
+    public TCPResult run() { // same as simulate(), but without console output nor plot
+        return run(SimulationListener.NONE);
+    }
 
-                    plot.addPointToPlot(TCPPlot.RCVWND_LABEL, (time + 1) * rtt, currentRcvwnd);
-                }
+    public TCPResult savePlot(String fileName, String format) throws IOException { // headless, without console output
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName))) {
+            return savePlot(out, format);
+        }
+    }
 
-                if (cwnd < ssthresh) {
-                    cwnd = Math.min(Math.min(cwnd + sent, ssthresh), nextRcvwnd); // calculation of cwnd for the next iteration
-                } else {
-                    cwnd = Math.min(cwnd + sent / cwnd, nextRcvwnd); // based on ssthresh
-                }
-                time++; // next time quantum
-            } else {
-                data -= sent; // calculating how much data would be left if network wasn't down
+    public TCPResult savePlot(OutputStream out, String format) throws IOException { // svg, or as in ImageIO
+        TCPPlot plot = new TCPPlot(rtt);
+        TCPResult result = run(plot);
+        plot.savePlot(out, format);
+        return result;
+    }
 
-                printStatus();
+    public TCPResult run(SimulationListener listener) {
+        this.listener = listener;
+        TCPMetrics.SimulationEvent event = TCPMetrics.begin(new TCPMetrics.SimulationEvent());
+        transmit();
+        TCPMetrics.end(event, rounds);
+        countMetrics();
+        return new TCPResult(time * rtt, rounds, losses, rtoScaleFactor == MAX_RTO);
+    }
 
-                plot.addPointToPlot(TCPPlot.SSTHRESH_LABEL, (time + rto * rtoScaleFactor) * rtt, ssthresh); // add ssthresh to plot to have straight lines
-                plot.addPointToPlot(TCPPlot.RCVWND_LABEL, time * rtt, nextRcvwnd); // add ssthresh to plot to have straight lines
-                plot.addPointToPlot(TCPPlot.SEGMENTS_LOST_LABEL, time * rtt, cwnd); // add segments lost to plot
+    double getRtt() { // in sec
+        return rtt;
+    }
 
-                ssthresh = Math.max(MIN_SSTHRESH, ((int) cwnd) / 2); // set new ssthresh value after network down
-                cwnd = MIN_CWND; // set new cwnd value after network down
-                data += sent; // restore segments that have not been lost
+    void pack(TCPLockstep.Lanes lanes, int lane) { // state before the first round, as a lane of a lockstep batch
+        lanes.set(lane, data, mssBytes, cwnd, ssthresh, nextRcvwnd, rtoScaleFactor, rto, rtt, networkDownIndex,
+                rcvwnds);
+    }
 
-                printSegmentLoss();
+    private void countMetrics() { // once per run, so that rounds cost the same with or without metrics
+        if (TCPMetrics.isEnabled()) {
+            int timeouts = rtoScaleFactor == MAX_RTO ? 1 : 0;
+            TCPMetrics.count(TCPMetrics.Counter.SIMULATIONS, 1);
+            TCPMetrics.count(TCPMetrics.Counter.ROUNDS, rounds);
+            TCPMetrics.count(TCPMetrics.Counter.NETWORK_DOWN_CHECKS, networkDownChecks);
+            TCPMetrics.count(TCPMetrics.Counter.LOST_ROUNDS, losses);
+            TCPMetrics.count(TCPMetrics.Counter.RTO_BACKOFFS, losses - timeouts);
+            TCPMetrics.count(TCPMetrics.Counter.TIMEOUTS, timeouts);
+        }
+    }
+
+    private void transmit() {
+        listener.onStart();
+        for (int i = 0; i < networkDowns.length; i++) {
+            listener.onNetworkDown(i, networkDowns[i][0], networkDowns[i][1]);
+        }
 
-                time += rto * rtoScaleFactor; // wait rto
-                rtoScaleFactor *= 2; // double rto for the next time (if any)
+        boolean transmitting = schedule(transmission, EventType.ROUND_END, time);
 
-                if (rtoScaleFactor == MAX_RTO) { // rto doubling limit check
-                    printTimeOut();
+        while (transmitting) { // jump from event to event, the transmission itself being one of them
+            Event event = events.poll();
 
-                    plot.addPointToPlot(TCPPlot.CONNECTION_TIMED_OUT_LABEL, time * rtt, ssthresh); // add timeout symbol to plot
-                    break;
-                }
+            if (Thread.currentThread().isInterrupted()) { // a field read, next to the queue it costs nothing
+                throw new CancellationException("Simulation interrupted"); // e.g. by a batch giving up on it
+            }
 
-                addPointsToPlot(DO_NOT_ADD_CWND, ADD_SSTHRESH, ADD_RCVWND);
+            switch (event.type) {
+                case OUTAGE_START ->
+                    schedule(outage, EventType.OUTAGE_END, networkDownIndex.finish(nextOutage++));
+                case OUTAGE_END ->
+                    scheduleNetworkDowns();
+                case RCVWND_CHANGE ->
+                    scheduleRcvwnds();
+                case ROUND_END, RTO_EXPIRY ->
+                    transmitting = transmitRound();
             }
         }
 
-        printEndOfTransmission();
-        addPointsToPlot(rtoScaleFactor == MAX_RTO ? DO_NOT_ADD_CWND : ADD_CWND, ADD_SSTHRESH, ADD_RCVWND);
-        showPlot();
+        listener.onEnd(time * rtt, cwnd, ssthresh, nextRcvwnd, rtoScaleFactor == MAX_RTO);
     }
 
-    private boolean isNetworkDown() {
-        for (double[] networkDown : networkDowns) {
-            double start = networkDown[0];
-            double finish = networkDown[1];
-
-            // check two cases:
-            // - time is exactly in a network down interval
-            // - time is less than a rtt from a network down (hence segments are supposed to be lost during sending)
-            if (time * rtt >= start && time * rtt < finish || Math.abs(time * rtt - start) < rtt) {
-                return true;
-            }
+    private boolean transmitRound() { // returns false when the transmission is over
+        time = transmission.time;
+        if (time >= MAX_QUANTA) { // smaller rcvwnds or losses made it longer than checked when created
+            throw new IllegalArgumentException("Invalid data provided (more than " + MAX_QUANTA + " rounds needed)");
         }
+        sent = (int) Math.min((int) cwnd, data); // number of segments to be sent each time
 
-        return false;
-    }
+        if (!isNetworkDown()) {
+            rtoScaleFactor = MIN_RTO; // if network is not down, restore factor to 1
 
-    private int getNextRcvwnd() {
-        for (int i = time; i > 0; i--) {
-            if (i < rcvwnds.length && rcvwnds[i] != 0) { // get the last known rcvwnd by looking backwards in time
-                return rcvwnds[i] / mssBytes;
+            if (data == NO_MORE_DATA) { // check for final print (when ACK are received and ssthresh is set)
+                listener.onRound(time * rtt, data, sent, cwnd, ssthresh, nextRcvwnd);
+                return false;
             }
-        }
 
-        return rcvwnds[0] / mssBytes;
-    }
+            data -= sent; // data being sent
+            rounds++;
+
+            listener.onRound(time * rtt, data, sent, cwnd, ssthresh, nextRcvwnd);
 
-    private int[] buildRcvwnds(double[]... timesAndValues) {
-        double max = 0;
+            currentRcvwnd = nextRcvwnd; // rcvwnd at the beginning of the iteration
+            nextRcvwnd = getNextRcvwnd(); // calculation of rcvwnd for the next iteration
 
-        // get the maximum time so the array can be built with max / rtt + 1 cells
-        for (double[] timeAndValue : timesAndValues) {
-            if (timeAndValue[0] > max) {
-                max = timeAndValue[0];
+            if (currentRcvwnd != nextRcvwnd) {
+                listener.onRcvwndChange((time + 1) * rtt, currentRcvwnd, nextRcvwnd);
             }
-        }
 
-        int[] arr = new int[(int) (max / rtt) + 1];
+            cwnd = nextCwnd(cwnd, sent, ssthresh, nextRcvwnd); // calculation of cwnd for the next iteration
 
-        // loading values at given position, scaling with rtt
-        for (double[] timeAndValue : timesAndValues) {
-            arr[(int) (timeAndValue[0] / rtt)] = (int) timeAndValue[1];
+            if (fastForward && randomLoss == null) { // any round can be lost otherwise
+                skipRounds();
+            }
+
+            return schedule(transmission, EventType.ROUND_END, time + 1); // next time quantum
         }
 
-        return arr;
-    }
+        data -= sent; // calculating how much data would be left if network wasn't down
+        rounds++;
+        losses++;
 
-    private void verify(int mssBytes, int dataBytes, int ssthresh, double[][] networkDowns, double[][] rcvwnds,
-            double rtt, int rto) {
-        // check for null values
-        if (rcvwnds == null || rcvwnds.length < 1) {
-            throw new IllegalArgumentException("Invalid length of rcvwnds (must be > 0)");
-        }
-        if (mssBytes <= 0 || dataBytes <= 0 || ssthresh <= 0 || rtt <= 0 || rto <= 0) {
-            throw new IllegalArgumentException("Invalid values provided");
-        }
+        listener.onSegmentLoss(time * rtt, data, sent, cwnd, ssthresh, nextRcvwnd,
+                (time + rto * rtoScaleFactor) * rtt, rtoScaleFactor);
 
-        // check for negative or overlapping rcvwnds
-        for (int i = 0; i < rcvwnds.length; i++) {
-            if (rcvwnds[i][0] < 0 || rcvwnds[i][1] <= 0) {
-                throw new IllegalArgumentException("Invalid values provided");
-            }
+        ssthresh = ssthreshAfterLoss(cwnd); // set new ssthresh value after network down
+        cwnd = MIN_CWND; // set new cwnd value after network down
+        data += sent; // restore segments that have not been lost
 
-            for (int j = i - 1; j >= 0; j--) {
-                if (rcvwnds[i][0] <= rcvwnds[j][0]) {
-                    throw new IllegalArgumentException("Overlapping rcvwnds provided");
-                }
-            }
+        time += rto * rtoScaleFactor; // wait rto
+        rtoScaleFactor *= 2; // double rto for the next time (if any)
+
+        if (rtoScaleFactor == MAX_RTO) { // rto doubling limit check
+            listener.onTimeout(time, time * rtt, ssthresh);
+            return false;
         }
 
-        // check for negative or overlapping network downs
-        for (int i = 0; i < networkDowns.length; i++) {
-            if (networkDowns[i][0] < 0 || networkDowns[i][1] <= 0 || networkDowns[i][0] >= networkDowns[i][1]) {
-                throw new IllegalArgumentException("Invalid values provided");
-            }
+        listener.onRtoBackoff(time * rtt, ssthresh, nextRcvwnd, rtoScaleFactor);
 
-            for (int j = i + 1; j < networkDowns.length; j++) {
-                if (networkDowns[i][0] >= networkDowns[j][0] && networkDowns[i][0] < networkDowns[j][1]
-                        || networkDowns[i][1] > networkDowns[j][0] && networkDowns[i][1] <= networkDowns[j][1]) {
-                    throw new IllegalArgumentException("Overlapping network downs provided");
-                }
-            }
+        return schedule(transmission, EventType.RTO_EXPIRY, time); // retransmit when rto expires
+    }
+
+    private void skipRounds() {
+        // rounds before the next event can be neither lost nor told a different rcvwnd: only data and cwnd change
+        Event next = events.peek();
+        int skippable = Math.min(next == null ? MAX_QUANTA : next.time, MAX_QUANTA) - time - 1;
+        int skipped = 0;
+        double startCwnd = cwnd;
+
+        // while cwnd grows, rounds are replayed one by one (they are at most as many as rcvwnd, and the rest is
+        // skipped by the next round: a loop this tight would hold up the other threads, and interrupts, meanwhile)
+        while (skipped < skippable && skipped < MAX_REPLAYED_ROUNDS && cwnd < nextRcvwnd && data >= (int) cwnd) {
+            data -= (int) cwnd;
+            cwnd = nextCwnd(cwnd, (int) cwnd, ssthresh, nextRcvwnd);
+            skipped++;
         }
 
-        // check for invalid values of ssthresh and rto
-        if (ssthresh != INITIAL_RCVWND && ssthresh != HALF_INITIAL_RCVWND) {
-            throw new IllegalArgumentException("Invalid value provided for SSTHRESH");
+        // once cwnd is capped by rcvwnd, every round sends the same amount of segments
+        if (skipped < skippable && cwnd == nextRcvwnd) {
+            int capped = (int) Math.min(skippable - skipped, data / nextRcvwnd);
+            data -= (long) capped * nextRcvwnd;
+            skipped += capped;
         }
 
-        if (rto != DOUBLE_RTT) {
-            throw new IllegalArgumentException("Invalid value provided for RTO");
+        if (skipped > 0) {
+            rounds += skipped;
+            listener.onSkippedRounds(time + 1, skipped, rtt, startCwnd, cwnd, data, ssthresh, nextRcvwnd);
+            time += skipped;
         }
     }
 
-    private void showPlot() {
-        plot.showPlot();
+    private boolean schedule(Event event, EventType type, int time) {
+        event.type = type;
+        event.time = time;
+        return events.add(event);
     }
 
-    private void addPointsToPlot(boolean addCwnd, boolean addSsthresh, boolean addRcvwnd) {
-        if (addCwnd) {
-            plot.addPointToPlot(TCPPlot.CWND_LABEL, time * rtt, cwnd); // add cwnd to plot
+    private void scheduleNetworkDowns() { // only the next window is queued, the others wait in the index
+        if (nextOutage < networkDownIndex.size()) {
+            schedule(outage, EventType.OUTAGE_START, networkDownIndex.start(nextOutage));
         }
+    }
 
-        if (addRcvwnd) {
-            plot.addPointToPlot(TCPPlot.RCVWND_LABEL, time * rtt, nextRcvwnd); // add rcvwnd to plot
+    private void scheduleRcvwnds() { // only the next change is queued, the others wait in the schedule
+        while (nextRcvwndChange < rcvwnds.size() && rcvwnds.time(nextRcvwndChange) <= time) {
+            nextRcvwndChange++; // already told
         }
 
-        if (addSsthresh) {
-            plot.addPointToPlot(TCPPlot.SSTHRESH_LABEL, time * rtt, ssthresh);
+        if (nextRcvwndChange < rcvwnds.size()) {
+            schedule(rcvwndChange, EventType.RCVWND_CHANGE, rcvwnds.time(nextRcvwndChange++));
         }
     }
 
-    private void addNetworkDownsToPlot() {
-        for (int i = 0; i < networkDowns.length; i++) {
-            plot.addNetworkDownToPlot(i, networkDowns[i]); // add network downs to plot
+    static double nextCwnd(double cwnd, int sent, int ssthresh, int rcvwnd) { // after a round without losses
+        if (cwnd < ssthresh) {
+            return Math.min(Math.min(cwnd + sent, ssthresh), rcvwnd); // slow start
         }
-    }
 
-    private void printStartOfTransmission() {
-        System.out.println("\t----- SOT -----");
+        return Math.min(cwnd + sent / cwnd, rcvwnd); // congestion avoidance
     }
 
-    private void printEndOfTransmission() {
-        System.out.println("\t----- EOT -----");
+    static int ssthreshAfterLoss(double cwnd) {
+        return Math.max(MIN_SSTHRESH, ((int) cwnd) / 2);
     }
 
-    private void printTimeOut() {
-        System.out.println("[!]\t---> Reached maximum RTO (" + MAX_RTO / 2 + "x base RTO) and timed out. "
-                + "Connection closed at [" + time + "]");
+    private boolean isNetworkDown() {
+        networkDownChecks++;
+        boolean lost = randomLoss != null && randomLoss.isLost(time, rtt); // drawn anyway, so draws do not shift
+        return networkDownIndex.isNetworkDown(time) || lost;
     }
 
-    private void printSegmentLoss() {
-        DecimalFormat f = new DecimalFormat("##.#");
-        System.out.println("[!]\t---> Segments sent at [" + f.format(time * rtt)
-                + "] were lost, restoring cwnd " + (rtoScaleFactor > MIN_RTO ? ", doubling and " : "and ")
-                + "waiting RTO until [" + f.format(rtt * (time + rto * rtoScaleFactor))
-                + "]... (" + rtoScaleFactor + "x base RTO)");
+    private int getNextRcvwnd() {
+        return rcvwnds.valueAt(time) / mssBytes; // last rcvwnd told up to now
     }
 
-    private void printStatus() {
-        System.out.println(this);
+    private void verify(int mssBytes, long dataBytes, int ssthresh, double[][] rcvwnds, double rtt, int rto) {
+        // check for null values
+        if (rcvwnds == null || rcvwnds.length < 1) {
+            throw new IllegalArgumentException("Invalid length of rcvwnds (must be > 0)");
+        }
+        if (mssBytes <= 0 || dataBytes <= 0 || ssthresh <= 0 || rtt <= 0 || rto <= 0) {
+            throw new IllegalArgumentException("Invalid values provided");
+        }
+
+        // check for invalid values of ssthresh and rto
+        if (ssthresh != INITIAL_RCVWND && ssthresh != HALF_INITIAL_RCVWND) {
+            throw new IllegalArgumentException("Invalid value provided for SSTHRESH");
+        }
+
+        if (rto != DOUBLE_RTT) {
+            throw new IllegalArgumentException("Invalid value provided for RTO");
+        }
     }
 
     @Override
@@ -275,4 +348,19 @@ public class TCPSimulator {
                 + "\tssthresh = " + ssthresh
                 + "\t  rcvwnd = " + nextRcvwnd;
     }
+
+    private enum EventType { // events at the same time are processed in this order
+        OUTAGE_START, OUTAGE_END, RCVWND_CHANGE, ROUND_END, RTO_EXPIRY
+    }
+
+    private static class Event implements Comparable<Event> {
+
+        private EventType type;
+        private int time; // quantum of time
+
+        @Override
+        public int compareTo(Event other) {
+            return time != other.time ? Integer.compare(time, other.time) : type.compareTo(other.type);
+        }
+    }
 }
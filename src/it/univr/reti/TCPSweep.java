@@ -0,0 +1,334 @@
+package it.univr.reti;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parameter sweep on top of {@link TCPSimulator}. Every combination of the
+ * given values is simulated (without console output nor plot) on a fork-join
+ * pool, and a summary of each run is returned in combination order, or
+ * written to a {@link TCPResultStore} at its combination index when there are
+ * too many of them to be kept.
+ */
+public class TCPSweep {
+
+    private static final int SEQUENTIAL_THRESHOLD = 16; // runs simulated by a task without splitting further
+    private static final double RANGE_EPSILON = 1e-9; // tolerance used when building decimal ranges
+
+    private int[] mss = {};
+    private long[] data = {};
+    private int[] ssthresh = {TCPSimulator.INITIAL_RCVWND};
+    private double[] rtt = {};
+    private double[][][] rcvwnds = {};
+    private double[][][] networkDowns = {TCPSimulator.NO_NETWORK_DOWNS};
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public static TCPSweep sweep() {
+        return new TCPSweep();
+    }
+
+    private TCPSweep() {
+    }
+
+    public TCPSweep mss(int... values) {
+        this.mss = values;
+        return this;
+    }
+
+    public TCPSweep mssRange(int from, int to, int step) {
+        this.mss = range(from, to, step);
+        return this;
+    }
+
+    public TCPSweep data(long... values) {
+        this.data = values;
+        return this;
+    }
+
+    public TCPSweep dataRange(long from, long to, long step) {
+        if (step <= 0 || to < from) {
+            throw new IllegalArgumentException("Invalid range provided");
+        }
+
+        long[] values = new long[length((to - from) / step + 1)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = from + i * step;
+        }
+
+        this.data = values;
+        return this;
+    }
+
+    public TCPSweep ssthresh(int... values) { // INITIAL_RCVWND and/or HALF_INITIAL_RCVWND
+        this.ssthresh = values;
+        return this;
+    }
+
+    public TCPSweep rtt(double... values) {
+        this.rtt = values;
+        return this;
+    }
+
+    public TCPSweep rttRange(double from, double to, double step) {
+        if (step <= 0 || to < from) {
+            throw new IllegalArgumentException("Invalid range provided");
+        }
+
+        double[] values = new double[length(Math.floor((to - from) / step + RANGE_EPSILON) + 1)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = from + i * step; // no accumulation, so that values do not drift
+        }
+
+        this.rtt = values;
+        return this;
+    }
+
+    public TCPSweep rcvwnds(double[][]... schedules) {
+        this.rcvwnds = schedules;
+        return this;
+    }
+
+    public TCPSweep networkDowns(double[][]... schedules) {
+        this.networkDowns = schedules;
+        return this;
+    }
+
+    public TCPSweep parallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid parallelism provided (must be > 0)");
+        }
+
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int size() throws IllegalArgumentException { // number of combinations, as runs are indexed by int
+        try {
+            return Math.multiplyExact(Math.multiplyExact(Math.multiplyExact(Math.multiplyExact(Math.multiplyExact(
+                    mss.length, data.length), ssthresh.length), rtt.length), rcvwnds.length), networkDowns.length);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid sweep provided (more than " + Integer.MAX_VALUE
+                    + " combinations)");
+        }
+    }
+
+    public List<Run> run() {
+        if (size() == 0) {
+            throw new IllegalArgumentException("Every parameter needs at least one value");
+        }
+
+        Run[] runs = new Run[size()];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try {
+            pool.invoke(new SweepTask(runs, null, null, 0, runs.length));
+        } finally {
+            pool.shutdown();
+        }
+
+        return Arrays.asList(runs);
+    }
+
+    public long run(TCPResultStore store) {
+        // runs written to the store (with their traces, if it keeps them) instead of returned; runs already
+        // stored are skipped, so a sweep stopped halfway goes on where it was. Returns the runs simulated now
+        if (size() == 0) {
+            throw new IllegalArgumentException("Every parameter needs at least one value");
+        }
+        if (store.capacity() < size()) {
+            throw new IllegalArgumentException("Invalid store provided (room for " + store.capacity() + " runs, "
+                    + size() + " needed)");
+        }
+        store.claim("sweep " + Arrays.toString(mss) + Arrays.toString(data) + Arrays.toString(ssthresh)
+                + Arrays.toString(rtt) + Arrays.deepToString(rcvwnds) + Arrays.deepToString(networkDowns));
+
+        LongAdder simulated = new LongAdder();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try {
+            pool.invoke(new SweepTask(null, store, simulated, 0, size()));
+        } finally {
+            pool.shutdown();
+        }
+
+        return simulated.sum();
+    }
+
+    private Run simulate(int combination, TCPResultStore store) { // also written to the store, if any
+        // decode the combination index, the last parameter being the fastest changing one
+        int index = combination;
+        int networkDownsIndex = index % networkDowns.length;
+        index /= networkDowns.length;
+        int rcvwndsIndex = index % rcvwnds.length;
+        index /= rcvwnds.length;
+        double rttValue = rtt[index % rtt.length];
+        index /= rtt.length;
+        int ssthreshValue = ssthresh[index % ssthresh.length];
+        index /= ssthresh.length;
+        long dataValue = data[index % data.length];
+        index /= data.length;
+        int mssValue = mss[index];
+
+        Run run = new Run(mssValue, dataValue, ssthreshValue, rttValue, rcvwndsIndex, networkDownsIndex);
+
+        TCPTrace trace = null;
+
+        try {
+            TCPSimulator simulator = new TCPSimulator(mssValue, dataValue, ssthreshValue,
+                    networkDowns[networkDownsIndex], rcvwnds[rcvwndsIndex], rttValue, TCPSimulator.DOUBLE_RTT)
+                    .fastForward(true);
+            if (store != null && store.keepsTraces()) {
+                trace = TCPTrace.record(simulator);
+                run.result = trace.getResult();
+            } else {
+                run.result = simulator.run();
+            }
+        } catch (IllegalArgumentException e) { // invalid combination, the rest of the sweep goes on
+            run.error = e.getMessage();
+        }
+
+        if (store != null) {
+            store.put(combination, mssValue, dataValue, ssthreshValue, rttValue, rcvwndsIndex, networkDownsIndex,
+                    run.result, run.getGoodput(), trace);
+        }
+        return run;
+    }
+
+    private static int[] range(int from, int to, int step) {
+        if (step <= 0 || to < from) {
+            throw new IllegalArgumentException("Invalid range provided");
+        }
+
+        int[] values = new int[length(((double) to - from) / step + 1)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = from + i * step;
+        }
+
+        return values;
+    }
+
+    private class SweepTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L; // never serialized, as the pool runs it in place
+
+        private final Run[] runs; // null if runs are only stored
+        private final TCPResultStore store; // null if runs are only returned
+        private final LongAdder simulated; // runs not found in the store
+        private final int from; // inclusive
+        private final int to; // exclusive
+
+        private SweepTask(Run[] runs, TCPResultStore store, LongAdder simulated, int from, int to) {
+            this.runs = runs;
+            this.store = store;
+            this.simulated = simulated;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    if (store == null) {
+                        runs[i] = simulate(i, null);
+                    } else if (!store.isStored(i)) {
+                        simulate(i, store);
+                        simulated.increment();
+                    }
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new SweepTask(runs, store, simulated, from, middle),
+                    new SweepTask(runs, store, simulated, middle, to));
+        }
+    }
+
+    private static int length(double values) throws IllegalArgumentException { // of a range, checked
+        if (!(values <= Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("Invalid range provided (more than " + Integer.MAX_VALUE
+                    + " values)");
+        }
+
+        return (int) values;
+    }
+
+    public static class Run {
+
+        private final int mssBytes;
+        private final long dataBytes;
+        private final int ssthresh;
+        private final double rtt;
+        private final int rcvwndsIndex; // index of the rcvwnds schedule used
+        private final int networkDownsIndex; // index of the network downs schedule used
+        private TCPResult result; // null if the combination was invalid
+        private String error; // why the combination was invalid, if it was
+
+        private Run(int mssBytes, long dataBytes, int ssthresh, double rtt, int rcvwndsIndex, int networkDownsIndex) {
+            this.mssBytes = mssBytes;
+            this.dataBytes = dataBytes;
+            this.ssthresh = ssthresh;
+            this.rtt = rtt;
+            this.rcvwndsIndex = rcvwndsIndex;
+            this.networkDownsIndex = networkDownsIndex;
+        }
+
+        public int getMssBytes() {
+            return mssBytes;
+        }
+
+        public long getDataBytes() {
+            return dataBytes;
+        }
+
+        public int getSsthresh() {
+            return ssthresh;
+        }
+
+        public double getRtt() {
+            return rtt;
+        }
+
+        public int getRcvwndsIndex() {
+            return rcvwndsIndex;
+        }
+
+        public int getNetworkDownsIndex() {
+            return networkDownsIndex;
+        }
+
+        public TCPResult getResult() {
+            return result;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isValid() {
+            return result != null;
+        }
+
+        // in bytes per sec, all the segments over completion time as in TCPBottleneckSimulator, NaN if the
+        // combination was invalid or timed out, as what was delivered then is not known
+        public double getGoodput() {
+            if (result == null || result.isTimedOut()) {
+                return Double.NaN;
+            }
+            return result.getCompletionTime() > 0
+                    ? (double) (dataBytes / mssBytes) * mssBytes / result.getCompletionTime()
+                    : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Run [mss=" + mssBytes + ", data=" + dataBytes + ", ssthresh=" + ssthresh + ", rtt=" + rtt
+                    + ", rcvwnds=" + rcvwndsIndex + ", networkDowns=" + networkDownsIndex + ", "
+                    + (isValid() ? result : "error=" + error) + "]";
+        }
+    }
+}
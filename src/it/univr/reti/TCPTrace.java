@@ -0,0 +1,261 @@
+package it.univr.reti;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Everything a simulation told its listener, recorded once and replayed as
+ * many times as needed: to a {@link ConsoleListener} for the same lines, to a
+ * {@link TCPPlot} for the same plot. Events are kept as a type each and their
+ * values as doubles (ints fit exactly, remaining data, which may not, is kept
+ * as the bits of its long), so a trace takes a few bytes per round and can be
+ * written and read back as it is.
+ */
+public final class TCPTrace {
+
+    // EVENT TYPES, with the number of values of each one
+    private static final byte START = 0;
+    private static final byte NETWORK_DOWN = 1;
+    private static final byte ROUND = 2;
+    private static final byte RCVWND_CHANGE = 3;
+    private static final byte SKIPPED_ROUNDS = 4;
+    private static final byte SEGMENT_LOSS = 5;
+    private static final byte RTO_BACKOFF = 6;
+    private static final byte TIMEOUT = 7;
+    private static final byte END = 8;
+    private static final int[] ARITY = {0, 3, 6, 3, 8, 8, 4, 3, 5};
+
+    private static final int INITIAL_EVENTS = 64;
+    private static final int HEADER_BYTES = 8 + 4 + 4 + 1 + 4 + 4; // result, then number of events and values
+
+    private final TCPResult result;
+    private final byte[] types;
+    private final double[] values;
+
+    private TCPTrace(TCPResult result, byte[] types, double[] values) {
+        this.result = result;
+        this.types = types;
+        this.values = values;
+    }
+
+    public static TCPTrace record(TCPSimulator simulator) { // runs the simulator, which must not be run elsewhere
+        Recorder recorder = new Recorder();
+        TCPResult result = simulator.run(recorder);
+        return new TCPTrace(result, Arrays.copyOf(recorder.types, recorder.events),
+                Arrays.copyOf(recorder.values, recorder.size));
+    }
+
+    public TCPResult getResult() {
+        return result;
+    }
+
+    public int getEvents() {
+        return types.length;
+    }
+
+    public long sizeBytes() { // as held in memory and written by writeTo
+        return HEADER_BYTES + types.length + 8L * values.length;
+    }
+
+    public void replay(SimulationListener listener) { // same calls, in the same order, as the recorded run
+        double[] v = values;
+        int j = 0;
+        for (byte type : types) {
+            switch (type) {
+                case START ->
+                    listener.onStart();
+                case NETWORK_DOWN ->
+                    listener.onNetworkDown((int) v[j], v[j + 1], v[j + 2]);
+                case ROUND ->
+                    listener.onRound(v[j], remaining(v[j + 1]), (int) v[j + 2], v[j + 3], (int) v[j + 4],
+                            (int) v[j + 5]);
+                case RCVWND_CHANGE ->
+                    listener.onRcvwndChange(v[j], (int) v[j + 1], (int) v[j + 2]);
+                case SKIPPED_ROUNDS ->
+                    listener.onSkippedRounds((int) v[j], (int) v[j + 1], v[j + 2], v[j + 3], v[j + 4],
+                            remaining(v[j + 5]), (int) v[j + 6], (int) v[j + 7]);
+                case SEGMENT_LOSS ->
+                    listener.onSegmentLoss(v[j], remaining(v[j + 1]), (int) v[j + 2], v[j + 3], (int) v[j + 4],
+                            (int) v[j + 5], v[j + 6], (int) v[j + 7]);
+                case RTO_BACKOFF ->
+                    listener.onRtoBackoff(v[j], (int) v[j + 1], (int) v[j + 2], (int) v[j + 3]);
+                case TIMEOUT ->
+                    listener.onTimeout((int) v[j], v[j + 1], (int) v[j + 2]);
+                case END ->
+                    listener.onEnd(v[j], v[j + 1], (int) v[j + 2], (int) v[j + 3], v[j + 4] != 0);
+                default ->
+                    throw new IllegalStateException("Unknown event " + type);
+            }
+            j += ARITY[type];
+        }
+    }
+
+    private static double bits(long remaining) { // remaining data, stored exactly even past 2^53 segments
+        return Double.longBitsToDouble(remaining);
+    }
+
+    private static long remaining(double bits) {
+        return Double.doubleToRawLongBits(bits);
+    }
+
+    void writeTo(ByteBuffer out) { // sizeBytes() bytes, read back by readFrom
+        out.putDouble(result.getCompletionTime())
+                .putInt(result.getRounds())
+                .putInt(result.getLosses())
+                .put((byte) (result.isTimedOut() ? 1 : 0))
+                .putInt(types.length)
+                .putInt(values.length)
+                .put(types);
+        out.asDoubleBuffer().put(values);
+        out.position(out.position() + 8 * values.length);
+    }
+
+    static TCPTrace readFrom(ByteBuffer in) throws IllegalArgumentException {
+        TCPResult result = new TCPResult(in.getDouble(), in.getInt(), in.getInt(), in.get() != 0);
+        int events = in.getInt(), size = in.getInt();
+        if (events < 0 || size < 0 || in.remaining() < events + 8L * size) {
+            throw new IllegalArgumentException("Truncated trace");
+        }
+
+        byte[] types = new byte[events];
+        in.get(types);
+        double[] values = new double[size];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + 8 * size);
+
+        int expected = 0;
+        for (byte type : types) {
+            if (type < START || type > END) {
+                throw new IllegalArgumentException("Unknown event " + type);
+            }
+            expected += ARITY[type];
+        }
+        if (expected != size) {
+            throw new IllegalArgumentException("Invalid trace (" + size + " values for " + expected + ")");
+        }
+        return new TCPTrace(result, types, values);
+    }
+
+    @Override
+    public String toString() {
+        return "TCPTrace [events=" + types.length + ", bytes=" + sizeBytes() + ", result=" + result + "]";
+    }
+
+    private static class Recorder implements SimulationListener { // grows like an ArrayList, trimmed at the end
+
+        private byte[] types = new byte[INITIAL_EVENTS];
+        private double[] values = new double[INITIAL_EVENTS * 4];
+        private int events = 0;
+        private int size = 0; // values used
+
+        // one per number of values, written straight into the columns (varargs would need an array per event)
+        private void add(byte type) {
+            reserve(type, 0);
+        }
+
+        private void add(byte type, double a, double b, double c) {
+            int i = reserve(type, 3);
+            values[i] = a;
+            values[i + 1] = b;
+            values[i + 2] = c;
+        }
+
+        private void add(byte type, double a, double b, double c, double d) {
+            int i = reserve(type, 4);
+            values[i] = a;
+            values[i + 1] = b;
+            values[i + 2] = c;
+            values[i + 3] = d;
+        }
+
+        private void add(byte type, double a, double b, double c, double d, double e) {
+            int i = reserve(type, 5);
+            values[i] = a;
+            values[i + 1] = b;
+            values[i + 2] = c;
+            values[i + 3] = d;
+            values[i + 4] = e;
+        }
+
+        private void add(byte type, double a, double b, double c, double d, double e, double f) {
+            int i = reserve(type, 6);
+            values[i] = a;
+            values[i + 1] = b;
+            values[i + 2] = c;
+            values[i + 3] = d;
+            values[i + 4] = e;
+            values[i + 5] = f;
+        }
+
+        private void add(byte type, double a, double b, double c, double d, double e, double f, double g, double h) {
+            int i = reserve(type, 8);
+            values[i] = a;
+            values[i + 1] = b;
+            values[i + 2] = c;
+            values[i + 3] = d;
+            values[i + 4] = e;
+            values[i + 5] = f;
+            values[i + 6] = g;
+            values[i + 7] = h;
+        }
+
+        private int reserve(byte type, int count) { // room for an event of count values, returning where they go
+            if (events == types.length) {
+                types = Arrays.copyOf(types, events * 2);
+            }
+            if (size + count > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + count));
+            }
+            types[events++] = type;
+            size += count;
+            return size - count;
+        }
+
+        @Override
+        public void onStart() {
+            add(START);
+        }
+
+        @Override
+        public void onNetworkDown(int index, double start, double finish) {
+            add(NETWORK_DOWN, index, start, finish);
+        }
+
+        @Override
+        public void onRound(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd) {
+            add(ROUND, time, bits(remaining), sent, cwnd, ssthresh, rcvwnd);
+        }
+
+        @Override
+        public void onRcvwndChange(double time, int previousRcvwnd, int rcvwnd) {
+            add(RCVWND_CHANGE, time, previousRcvwnd, rcvwnd);
+        }
+
+        @Override
+        public void onSkippedRounds(int quantum, int rounds, double rtt, double startCwnd, double cwnd,
+                long remaining, int ssthresh, int rcvwnd) {
+            add(SKIPPED_ROUNDS, quantum, rounds, rtt, startCwnd, cwnd, bits(remaining), ssthresh, rcvwnd);
+        }
+
+        @Override
+        public void onSegmentLoss(double time, long remaining, int sent, double cwnd, int ssthresh, int rcvwnd,
+                double rtoExpiry, int rtoScaleFactor) {
+            add(SEGMENT_LOSS, time, bits(remaining), sent, cwnd, ssthresh, rcvwnd, rtoExpiry, rtoScaleFactor);
+        }
+
+        @Override
+        public void onRtoBackoff(double time, int ssthresh, int rcvwnd, int rtoScaleFactor) {
+            add(RTO_BACKOFF, time, ssthresh, rcvwnd, rtoScaleFactor);
+        }
+
+        @Override
+        public void onTimeout(int quantum, double time, int ssthresh) {
+            add(TIMEOUT, quantum, time, ssthresh);
+        }
+
+        @Override
+        public void onEnd(double time, double cwnd, int ssthresh, int rcvwnd, boolean timedOut) {
+            add(END, time, cwnd, ssthresh, rcvwnd, timedOut ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package it.univr.reti;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernel of {@link TCPLockstep} on the Vector API: the rules of
+ * TCPSimulator.transmitRound on as many lanes at once as the CPU has, the
+ * branches (round or loss, slow start or congestion avoidance, end or not)
+ * being masks. Compiled and run with --add-modules jdk.incubator.vector,
+ * loaded by TCPLockstep only if the module is there.
+ */
+class VectorKernel implements TCPLockstep.Kernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private final TCPLockstep.ScalarKernel tail = new TCPLockstep.ScalarKernel(); // lanes left after the vectors
+
+    @Override
+    public void step(TCPLockstep.Lanes l, int time) {
+        int bound = SPECIES.loopBound(l.size);
+
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            DoubleVector next = DoubleVector.fromArray(SPECIES, l.next, i);
+            VectorMask<Double> sending = DoubleVector.fromArray(SPECIES, l.state, i).eq(TCPLockstep.RUNNING)
+                    .and(next.eq(time));
+            if (!sending.anyTrue()) {
+                continue;
+            }
+
+            DoubleVector data = DoubleVector.fromArray(SPECIES, l.data, i);
+            DoubleVector cwnd = DoubleVector.fromArray(SPECIES, l.cwnd, i);
+            DoubleVector ssthresh = DoubleVector.fromArray(SPECIES, l.ssthresh, i);
+            DoubleVector rcvwnd = DoubleVector.fromArray(SPECIES, l.rcvwnd, i);
+            DoubleVector factor = DoubleVector.fromArray(SPECIES, l.rtoScaleFactor, i);
+            DoubleVector rounds = DoubleVector.fromArray(SPECIES, l.rounds, i);
+            DoubleVector losses = DoubleVector.fromArray(SPECIES, l.losses, i);
+            DoubleVector state = DoubleVector.fromArray(SPECIES, l.state, i);
+
+            VectorMask<Double> down = DoubleVector.fromArray(SPECIES, l.down, i).eq(0).not();
+            VectorMask<Double> lost = sending.and(down);
+            VectorMask<Double> up = sending.andNot(down);
+            VectorMask<Double> over = up.and(data.eq(0)); // no more data, the final round
+            VectorMask<Double> sent = up.andNot(over);
+
+            DoubleVector whole = truncate(cwnd); // (int) cwnd
+            DoubleVector segments = whole.min(data);
+
+            // round without losses
+            DoubleVector newRcvwnd = rcvwnd.blend(DoubleVector.fromArray(SPECIES, l.rcvwndNow, i), sent);
+            VectorMask<Double> slowStart = cwnd.lt(ssthresh);
+            DoubleVector grown = cwnd.add(segments).min(ssthresh).min(newRcvwnd)
+                    .blend(cwnd.add(segments.div(cwnd)).min(newRcvwnd), slowStart.not());
+            data = data.lanewise(VectorOperators.SUB, segments, sent);
+            next = next.blend((double) time + 1, sent);
+            factor = factor.blend(TCPSimulator.MIN_RTO, up);
+
+            // round with losses: same rules, rto waited and doubled
+            next = next.blend(DoubleVector.fromArray(SPECIES, l.rto, i).mul(factor).add(time), lost);
+            factor = factor.blend(factor.mul(2), lost);
+            DoubleVector halved = truncate(whole.mul(0.5)).max(1); // TCPSimulator.ssthreshAfterLoss
+
+            rounds.lanewise(VectorOperators.ADD, 1, sent.or(lost)).intoArray(l.rounds, i);
+            losses.lanewise(VectorOperators.ADD, 1, lost).intoArray(l.losses, i);
+            data.intoArray(l.data, i);
+            cwnd.blend(grown, sent).blend(TCPSimulator.MIN_CWND, lost).intoArray(l.cwnd, i);
+            ssthresh.blend(halved, lost).intoArray(l.ssthresh, i);
+            newRcvwnd.intoArray(l.rcvwnd, i);
+            factor.intoArray(l.rtoScaleFactor, i);
+            next.intoArray(l.next, i);
+            state.blend(TCPLockstep.COMPLETED, over)
+                    .blend(TCPLockstep.TIMED_OUT, lost.and(factor.eq(TCPSimulator.MAX_RTO)))
+                    .intoArray(l.state, i);
+        }
+
+        tail.step(l, time, bound, l.size);
+    }
+
+    private static DoubleVector truncate(DoubleVector v) { // as a cast to int, for the positive values of lanes
+        // rounded to the nearest integer by the addition (as doubles have no fraction bits left from 2^52 on),
+        // then one less where that rounded up: cheaper than converting to longs and back
+        DoubleVector rounded = v.add(0x1p52).sub(0x1p52);
+        return rounded.blend(rounded.sub(1), v.lt(rounded));
+    }
+}